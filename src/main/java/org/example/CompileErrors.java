@@ -1,20 +1,83 @@
 package org.example;
 
 import org.example.token.SourceSpan;
+import org.example.token.TokenType;
 
+import java.io.PrintStream;
+import java.util.Arrays;
 import java.util.List;
+import java.util.stream.Collectors;
 
+/**
+ * The errors reported so far. Errors are stored as offsets and a message id, the source location, text and message
+ * are only worked out here when they're rendered.
+ */
 public record CompileErrors(
+        CompilerCtx ctx,
         List<CompilerCtx.Error> errors
 ) {
-    public void print() {
+    public enum Message {
+        UNEXPECTED_CHARACTER,
+        IDENTIFIER_AFTER_QUESTION,
+        /** Args: the TokenType found, then the TokenType expected. */
+        WRONG_TOKEN,
+        /** Args: the TokenType found, then a TokenType[] of what was expected. */
+        WRONG_TOKEN_ONE_OF,
+        /** Args: the TypeInfo the literal was checked as. */
+        NUMBER_OUT_OF_RANGE,
+        UNKNOWN_MODULE,
+        NO_MODULE_INTERFACE,
+        /** Args: the name of the module. */
+        STALE_MODULE_INTERFACE,
+        /** Args: the names of the modules in the cycle, from the importing one round to it again. */
+        IMPORT_CYCLE;
+
+        String format(Object[] args) {
+            return switch (this) {
+                case UNEXPECTED_CHARACTER -> "Unexpected character";
+                case IDENTIFIER_AFTER_QUESTION -> "Identifiers must end after '?'";
+                case WRONG_TOKEN -> " Got " + args[0] + ", expected " + ((TokenType) args[1]).repr;
+                case WRONG_TOKEN_ONE_OF -> " Got " + args[0] + ", expected one of ["
+                        + Arrays.stream((TokenType[]) args[1]).map(t -> t.repr).collect(Collectors.joining(", ")) + "]";
+                case NUMBER_OUT_OF_RANGE -> "Number is out of range for " + args[0];
+                case UNKNOWN_MODULE -> "No module with that name";
+                case NO_MODULE_INTERFACE -> "No interface for that module, it has to be compiled first";
+                case STALE_MODULE_INTERFACE -> "Interface out of date or corrupt, recompile " + args[0];
+                case IMPORT_CYCLE -> "Import cycle: " + String.join(" -> ", (String[]) args[0]);
+            };
+        }
+    }
+
+    /** Renders every error, resolving their source spans. */
+    public String render() {
+        var sb = new StringBuilder();
         for (var error : errors) {
-            printError(error);
+            render(error, sb);
+        }
+        return sb.toString();
+    }
+
+    private void render(CompilerCtx.Error error, StringBuilder sb) {
+        if (error.file() == null) {
+            // Errors at Token.EOF have no file to point into.
+            sb.append("[end of input]");
+        } else {
+            SourceSpan span = ctx.getSourceSpan(error.file(), error.startOffset(), error.endOffset());
+            sb.append('[').append(span.formattedLocation()).append("] '").append(span.text()).append('\'');
         }
+        sb.append(": ").append(error.message().format(error.args())).append("\n\n");
+    }
+
+    /** Writes all the errors to stderr in one go. */
+    public void print() {
+        print(System.err);
     }
 
-    public static void printError(CompilerCtx.Error error) {
-        SourceSpan span = error.span();
-        System.err.println("[" + span.formattedLocation() + "] '" + span.text() + "': " + error.message() + "\n");
+    public void print(PrintStream stream) {
+        if (errors.isEmpty()) {
+            return;
+        }
+        stream.print(render());
+        stream.flush();
     }
 }
@@ -3,25 +3,37 @@ package org.example;
 import org.example.codegen.Codegen;
 import org.example.interpret.TreeInterpreter;
 import org.example.parse.*;
-import org.example.token.SourceLoc;
+import org.example.token.LineIndex;
+import org.example.token.NameTable;
+import org.example.token.ParallelLexer;
+import org.example.token.SourceText;
 import org.example.token.SourceSpan;
 import org.example.token.Token;
 import org.example.token.TokenType;
 import org.example.token.Tokenizer;
+import org.example.typecheck.ConstantPool;
+import org.example.typecheck.ParallelTypeChecker;
 import org.example.typecheck.SymbolTable;
 import org.example.typecheck.TypeChecker;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
-import java.util.IdentityHashMap;
-import java.util.LinkedHashMap;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 
 import static java.lang.System.out;
 
@@ -31,23 +43,86 @@ public class CompilerCtx {
             @Nullable
             Path path,
             String name,
-            String contents
-    ) {}
-
-    private final AtomicInteger nextUid = new AtomicInteger(1);
-    private final Map<Integer, FileInfo> files = new LinkedHashMap<>();
+            SourceText text,
+            LineIndex lineIndex
+    ) {
+        public FileInfo(int uid, @Nullable Path path, String name, SourceText text) {
+            this(uid, path, name, text, new LineIndex(text));
+        }
 
-    public final SymbolTable symbols = new SymbolTable();
+        public FileInfo(int uid, @Nullable Path path, String name, String contents) {
+            this(uid, path, name, SourceText.of(contents));
+        }
 
-    public final IdentityHashMap<Expr, Token> exprStarts = new IdentityHashMap<>();
-    public final IdentityHashMap<Expr, Token> exprEnds = new IdentityHashMap<>();
+        /** The whole file as a string. For files read from disk this decodes a copy of the file. */
+        public String contents() {
+            if (text instanceof SourceText.Streamed) {
+                throw new IllegalStateException("The contents of streamed file " + name + " can't be read back in full");
+            }
+            return text.toString();
+        }
+    }
 
+    private final AtomicInteger nextUid = new AtomicInteger(1);
+    private final Map<Integer, FileInfo> files = new ConcurrentHashMap<>();
+    /** The node ids of each file, see {@link #reserveNodeIds}. */
+    private final Map<Integer, NodeIds> nodeIds = new ConcurrentHashMap<>();
+
+    public final NameTable names = new NameTable();
+    public final SymbolTable symbols = new SymbolTable(names);
+    public final ConstantPool constants = new ConstantPool();
+
+    /**
+     * Skip whitespace and comments in UTF-8 files using the Vector API, rather than one char at a time.
+     * Needs {@code --add-modules jdk.incubator.vector}. Defaults to the {@code lexer.vectorized} system property.
+     */
+    public boolean vectorizedLexing = Boolean.getBoolean("lexer.vectorized");
+
+    /**
+     * Where to keep parsed files between runs, or null to always parse. Defaults to the directory in the
+     * {@code ast.cache} system property.
+     */
+    @Nullable
+    public AstCache astCache = System.getProperty("ast.cache") == null ? null : new AstCache(Path.of(System.getProperty("ast.cache")));
+
+    /**
+     * Where {@link org.example.module.ModuleCompiler} writes the interface of each module it checks, and reads the
+     * interfaces of modules it isn't given the source of, or null to keep them in memory. Defaults to the directory in
+     * the {@code module.interfaces} system property.
+     */
+    @Nullable
+    public Path moduleInterfaces = System.getProperty("module.interfaces") == null ? null : Path.of(System.getProperty("module.interfaces"));
+
+    /**
+     * Shares identical pure subtrees within each file parsed with {@link #parseFile}, or null to leave them as they
+     * are. Defaults to the {@code ast.hashcons} system property.
+     */
+    @Nullable
+    public HashConsing hashConsing = Boolean.getBoolean("ast.hashcons") ? new HashConsing() : null;
+
+    /**
+     * Check the function bodies of large files on several threads with {@link #checkFile}. Defaults to the
+     * {@code typecheck.parallel} system property.
+     */
+    public boolean parallelTypeChecking = Boolean.getBoolean("typecheck.parallel");
+
+    /**
+     * An error recorded by offsets, so nothing is formatted unless the errors are rendered. The file is the version the
+     * offsets are into, which an incremental edit that failed has since put back to how it was, or null at the end of
+     * input.
+     */
     public record Error(
-            SourceSpan span,
-            String message
+            int fileUid,
+            @Nullable
+            FileInfo file,
+            int startOffset,
+            int endOffset,
+            CompileErrors.Message message,
+            Object... args
     ) {}
 
-    private final List<Error> errors = new ArrayList<>();
+    // Synchronized as files can be lexed on several threads at once.
+    private final List<Error> errors = Collections.synchronizedList(new ArrayList<>());
 
     public CompilerCtx() {
 
@@ -62,11 +137,108 @@ public class CompilerCtx {
         return addFile(new FileInfo(nextUid.getAndIncrement(), path, name, contents));
     }
 
+    /**
+     * Memory-maps the file and lexes it straight out of the mapped UTF-8 bytes, so it's never decoded into the heap.
+     */
+    public FileInfo addFile(Path path) throws IOException {
+        MappedByteBuffer bytes;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        return addFile(new FileInfo(nextUid.getAndIncrement(), path, path.getFileName().toString(), SourceText.utf8(bytes)));
+    }
+
+    /**
+     * Adds a file that's read incrementally from the channel as it's tokenized, through a fixed-size buffer. Only the
+     * most recent tokens can be resolved back to source text, so the file has to be consumed in a single pass.
+     */
+    public FileInfo addStreamedFile(String name, ReadableByteChannel channel) {
+        return addStreamedFile(name, channel, SourceText.Streamed.DEFAULT_BUFFER_SIZE);
+    }
+
+    public FileInfo addStreamedFile(String name, ReadableByteChannel channel, int bufferSize) {
+        int uid = nextUid.getAndIncrement();
+        return addFile(new FileInfo(uid, null, name + "-" + uid, SourceText.streamed(channel, bufferSize)));
+    }
+
     public FileInfo addInMemoryFile(String name, String contents) {
         int uid = nextUid.getAndIncrement();
         return addFile(new FileInfo(uid, null, name + "-" + uid, contents));
     }
 
+    /**
+     * Replaces the contents of a file, keeping its uid so that tokens from before the edit still refer to it.
+     */
+    public FileInfo replaceFileText(FileInfo file, SourceText newText) {
+        return addFile(new FileInfo(file.uid(), file.path(), file.name(), newText));
+    }
+
+    /**
+     * Reserves {@code count} never used node ids in the file and returns the first. Ids are dense within a file, so
+     * tables indexed by them stay small.
+     */
+    public int reserveNodeIds(int fileUid, int count) {
+        return nodeIds(fileUid).reserve(count);
+    }
+
+    /**
+     * Fills {@code ids} with node ids in the file, using ones given back with {@link #releaseNodeIds} before any that
+     * were never used, so a file that keeps being reparsed doesn't keep needing more.
+     */
+    public void takeNodeIds(int fileUid, int[] ids) {
+        nodeIds(fileUid).take(ids);
+    }
+
+    /**
+     * Gives back node ids in the file to be used again. Nothing may still use them: no node still in a tree, and
+     * nothing kept by node id for a node that's gone, as the next node to get one would find it.
+     */
+    public void releaseNodeIds(int fileUid, int[] ids, int from, int to) {
+        nodeIds(fileUid).release(ids, from, to);
+    }
+
+    /** One more than the highest node id taken in the file so far. */
+    public int nodeIdCount(int fileUid) {
+        NodeIds ids = nodeIds.get(fileUid);
+        return ids == null ? 0 : ids.count();
+    }
+
+    private NodeIds nodeIds(int fileUid) {
+        return nodeIds.computeIfAbsent(fileUid, uid -> new NodeIds());
+    }
+
+    /** The node ids of a file: how many have ever been taken, and which of those have been given back. */
+    private static final class NodeIds {
+        private int count = 0;
+        private int[] released = new int[64];
+        private int releasedCount = 0;
+
+        synchronized int reserve(int n) {
+            int first = count;
+            count += n;
+            return first;
+        }
+
+        synchronized void take(int[] ids) {
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = releasedCount > 0 ? released[--releasedCount] : count++;
+            }
+        }
+
+        synchronized void release(int[] ids, int from, int to) {
+            int n = to - from;
+            if (releasedCount + n > released.length) {
+                released = Arrays.copyOf(released, Math.max(released.length * 2, releasedCount + n));
+            }
+            System.arraycopy(ids, from, released, releasedCount, n);
+            releasedCount += n;
+        }
+
+        synchronized int count() {
+            return count;
+        }
+    }
+
     public Tokenizer createTokenizer(FileInfo file) {
         return new Tokenizer(this, file);
     }
@@ -75,28 +247,49 @@ public class CompilerCtx {
         return new Parser(createTokenizer(file), this);
     }
 
-    private SourceLoc getSourceLocation(FileInfo file, int offset) {
-        int line = 1;
-        int column = 1;
-        var source = file.contents();
-        for (int i = 0; i < offset; i++) {
-            if (source.charAt(i) == '\n') {
-                line += 1;
-                column = 1;
-            } else {
-                column += 1;
-            }
+    /**
+     * Parses the file, or loads it from {@link #astCache} if it's been parsed before. Shares pure subtrees if
+     * {@link #hashConsing} is on.
+     */
+    public ParsedFile parseFile(FileInfo file) {
+        ParsedFile parsed = astCache != null ? astCache.parseFile(this, file) : createParser(file).parseFile();
+        return hashConsing != null ? hashConsing.apply(parsed) : parsed;
+    }
+
+    /** Type checks the file, on several threads if {@link #parallelTypeChecking} is on. */
+    public SymbolTable.FileScope checkFile(ParsedFile file) {
+        try {
+            return parallelTypeChecking ? new ParallelTypeChecker(this).checkFile(file) : new TypeChecker(this).checkFile(file);
+        } finally {
+            forgetSharedNodes(file);
+        }
+    }
+
+    /** Drops what {@link #hashConsing} kept to report errors in the file, once it's been checked. */
+    public void forgetSharedNodes(ParsedFile file) {
+        if (hashConsing != null) {
+            hashConsing.forgetFile(file.file().uid());
         }
-        return new SourceLoc(offset, line, column);
+    }
+
+    /**
+     * Lexes the whole file up front into a {@link org.example.token.TokenBuffer}, and parses from that.
+     * Large files are lexed in parallel.
+     */
+    public Parser createBufferedParser(FileInfo file) {
+        return new Parser(new ParallelLexer(this).tokenize(file).cursor(), this);
     }
 
     @NotNull
     public SourceSpan getSourceSpan(int fileUid, int start, int end) {
-        var file = getFile(fileUid);
+        return getSourceSpan(getFile(fileUid), start, end);
+    }
+
+    public SourceSpan getSourceSpan(FileInfo file, int start, int end) {
         return new SourceSpan(
-                getSourceLocation(file, start),
-                getSourceLocation(file, end - 1),
-                file.contents().substring(start, end)
+                file.lineIndex().getSourceLocation(start),
+                file.lineIndex().getSourceLocation(end - 1),
+                file.text().slice(start, end)
         );
     }
 
@@ -105,30 +298,58 @@ public class CompilerCtx {
     }
 
     public SourceSpan getSourceSpan(Expr expr) {
-        Token start = exprStarts.get(expr);
-        Token end = exprEnds.get(expr);
-        if (start.fileUid() != end.fileUid()) {
-            throw new IllegalStateException("start and end tokens are in different files");
+        SourceRange range = expr.range();
+        if (!range.isPresent()) {
+            throw new IllegalStateException("missing source range for " + expr);
         }
-        return getSourceSpan(start.fileUid(), start.startOffset(), end.endOffset());
+        return getSourceSpan(range.fileUid(), range.startOffset(), range.endOffset());
     }
 
     public FileInfo getFile(int fileUid) {
         return files.get(fileUid);
     }
 
-    public ParseError reportParseError(SourceSpan span, String message) {
-        Error err = new Error(span, message);
-        errors.add(err);
-        CompileErrors.printError(err);
+    /**
+     * Records an error and returns the exception to throw. Nothing is printed here, call {@link CompileErrors#print()}
+     * once the phase is done. For streamed files that has to happen before the stream moves past the error.
+     */
+    public ParseError reportParseError(int fileUid, int startOffset, int endOffset, CompileErrors.Message message, Object... args) {
+        errors.add(new Error(fileUid, files.get(fileUid), startOffset, endOffset, message, args));
         return new ParseError();
     }
 
+    public ParseError reportParseError(Token token, CompileErrors.Message message, Object... args) {
+        return reportParseError(token.fileUid(), token.startOffset(), token.endOffset(), message, args);
+    }
+
+    /**
+     * Unwinds the parser after an error has been recorded. The error itself says what went wrong, so there's no stack
+     * trace to capture.
+     */
     public static class ParseError extends RuntimeException {
+        public ParseError() {
+            super(null, null, false, false);
+        }
     }
 
+    /** The errors so far, in source order, as they can be reported from several threads at once. */
     public CompileErrors getCompileErrors() {
-        return new CompileErrors(errors);
+        var sorted = new ArrayList<>(List.copyOf(errors));
+        sorted.sort(Comparator.comparingInt(Error::fileUid).thenComparingInt(Error::startOffset));
+        return new CompileErrors(this, sorted);
+    }
+
+    /**
+     * Runs a phase of one of the helpers below. Errors aren't printed as they're reported, so if the phase bails out
+     * with a ParseError print what it reported before passing it on.
+     */
+    private <T> T printingErrorsOnFailure(Supplier<T> phase) {
+        try {
+            return phase.get();
+        } catch (ParseError e) {
+            getCompileErrors().print();
+            throw e;
+        }
     }
 
     public boolean didError() {
@@ -143,11 +364,8 @@ public class CompilerCtx {
 
     public void checkSourceRangeInfoIsPresent(Expr firstExpr) {
         Expr.traverseAll(firstExpr, expr -> {
-            if (!exprStarts.containsKey(expr)) {
-                throw new IllegalStateException("missing start token for " + expr);
-            }
-            if (!exprEnds.containsKey(expr)) {
-                throw new IllegalStateException("missing end token for " + expr);
+            if (!expr.range().isPresent()) {
+                throw new IllegalStateException("missing source range for " + expr);
             }
         });
     }
@@ -156,15 +374,19 @@ public class CompilerCtx {
     public static List<TokenType> tokenize(String source) {
         var ctx = new CompilerCtx();
         Tokenizer tokenizer = ctx.createTokenizer(ctx.addInMemoryFile("anon-file", source));
-        ArrayList<Token> tokens = tokenizer.tokenizeAll();
+        ArrayList<Token> tokens = ctx.printingErrorsOnFailure(tokenizer::tokenizeAll);
         return tokens.stream().map(Token::type).toList();
     }
 
     /** Helper method for testing out the Tokenizer. */
     public static void printTokens(String source) {
         var ctx = new CompilerCtx();
-        Tokenizer tokenizer = ctx.createTokenizer(ctx.addInMemoryFile("anon-file", source));
-        ArrayList<Token> tokens = tokenizer.tokenizeAll();
+        printTokens(ctx, ctx.addInMemoryFile("anon-file", source));
+    }
+
+    public static void printTokens(CompilerCtx ctx, FileInfo file) {
+        Tokenizer tokenizer = ctx.createTokenizer(file);
+        ArrayList<Token> tokens = ctx.printingErrorsOnFailure(tokenizer::tokenizeAll);
         for (Token token : tokens) {
             out.println(token.format(ctx));
         }
@@ -173,12 +395,15 @@ public class CompilerCtx {
     /** Helper method for testing out the parser. */
     public static void parseAndPrintTree(String source) {
         var ctx = new CompilerCtx();
-        Parser parser = ctx.createParser(ctx.addInMemoryFile("anon-file", source));
+        parseAndPrintTree(ctx, ctx.addInMemoryFile("anon-file", source));
+    }
+
+    public static void parseAndPrintTree(CompilerCtx ctx, FileInfo fileInfo) {
+        ParsedFile file = ctx.printingErrorsOnFailure(() -> ctx.parseFile(fileInfo));
         if (ctx.didError()) {
             ctx.getCompileErrors().print();
             return;
         }
-        ParsedFile file = parser.parseFile();
         new PrintAst().visit(file);
     }
 
@@ -186,31 +411,40 @@ public class CompilerCtx {
     public static Expr parseExpr(String source) {
         var ctx = new CompilerCtx();
         Parser parser = ctx.createParser(ctx.addInMemoryFile("anon-file", source));
-        return parser.parseExpr();
+        return ctx.printingErrorsOnFailure(parser::parseExpr);
     }
 
     /** Helper method for testing out the type checker. */
     public static void checkTypes(String source) {
         var ctx = new CompilerCtx();
-        Parser parser = ctx.createParser(ctx.addInMemoryFile("anon-file", source));
-        ParsedFile file = parser.parseFile();
+        checkTypes(ctx, ctx.addInMemoryFile("anon-file", source));
+    }
+
+    public static void checkTypes(CompilerCtx ctx, FileInfo fileInfo) {
+        ParsedFile file = ctx.printingErrorsOnFailure(() -> ctx.parseFile(fileInfo));
         if (ctx.didError()) {
             ctx.getCompileErrors().print();
             return;
         }
-        new TypeChecker(ctx).checkFile(file);
+        ctx.printingErrorsOnFailure(() -> ctx.checkFile(file));
     }
 
     public static void codeEmitForExpression(String source) {
-        System.out.println("\nCodegen for expression: " + source);
         var ctx = new CompilerCtx();
-        Parser parser = ctx.createParser(ctx.addInMemoryFile("anon-file", source));
-        Expr expr = parser.parseExpr();
+        codeEmitForExpression(ctx, ctx.addInMemoryFile("anon-file", source));
+    }
+
+    public static void codeEmitForExpression(CompilerCtx ctx, FileInfo fileInfo) {
+        Parser parser = ctx.createParser(fileInfo);
+        Expr expr = ctx.printingErrorsOnFailure(parser::parseExpr);
         if (ctx.didError()) {
             ctx.getCompileErrors().print();
             return;
         }
-        new TypeChecker(ctx).resolveExpr(expr);
+        // Echoed once it's been read, as a streamed file can only be read back while it's still buffered.
+        String source = fileInfo.text().slice(0, fileInfo.text().length()).strip();
+        System.out.println("\nCodegen for expression: " + source);
+        ctx.printingErrorsOnFailure(() -> new TypeChecker(ctx).resolveExpr(expr));
         if (ctx.didError()) {
             ctx.getCompileErrors().print();
             return;
@@ -222,12 +456,12 @@ public class CompilerCtx {
     public static void interpret(String source) {
         var ctx = new CompilerCtx();
         Parser parser = ctx.createParser(ctx.addInMemoryFile("anon-file", source));
-        ParsedFile file = parser.parseFile();
+        ParsedFile file = ctx.printingErrorsOnFailure(parser::parseFile);
         if (ctx.didError()) {
             ctx.getCompileErrors().print();
             return;
         }
-        SymbolTable.FileScope fileScope = new TypeChecker(ctx).checkFile(file);
+        SymbolTable.FileScope fileScope = ctx.printingErrorsOnFailure(() -> ctx.checkFile(file));
         if (ctx.didError()) {
             ctx.getCompileErrors().print();
             return;
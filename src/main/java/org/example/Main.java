@@ -1,43 +1,59 @@
 package org.example;
 
+import org.example.module.ModuleCompiler;
+
 import java.io.IOException;
-import java.nio.file.Files;
+import java.nio.channels.Channels;
 import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
 
 public class Main {
     public static void main(String[] args) {
         if (args.length < 2) {
             System.err.println("Arguments required:");
-            System.err.println("  tokenize|parse|typecheck <file_path>");
+            System.err.println("  tokenize|parse <file_path>");
+            System.err.println("  typecheck <file_path>...");
             System.err.println("  codegen <expression>");
+            System.err.println("Pass -Dast.cache=<dir> to keep parsed files between runs.");
+            System.err.println("Pass -Dtypecheck.parallel=true to check function bodies on several threads.");
+            System.err.println("Several files are checked as the modules of one program, each named after its file.");
+            System.err.println("Pass -Dmodule.interfaces=<dir> to write each module's interface there. A single file is then");
+            System.err.println("checked on its own, against the interfaces of the modules it imports.");
             return;
         }
 
         String operation = args[0];
         switch (operation) {
             case "tokenize" -> {
-                String sourceCode = readFile(args[1]);
-                if (sourceCode == null) return;
-                CompilerCtx.printTokens(sourceCode);
+                var ctx = new CompilerCtx();
+                CompilerCtx.FileInfo file = addFile(ctx, args[1]);
+                if (file == null) return;
+                CompilerCtx.printTokens(ctx, file);
             }
             case "parse" -> {
-                String sourceCode = readFile(args[1]);
-                if (sourceCode == null) return;
-                CompilerCtx.parseAndPrintTree(sourceCode);
+                var ctx = new CompilerCtx();
+                CompilerCtx.FileInfo file = addFile(ctx, args[1]);
+                if (file == null) return;
+                CompilerCtx.parseAndPrintTree(ctx, file);
+                printCacheStats(ctx);
             }
             case "typecheck" -> {
-                String sourceCode = readFile(args[1]);
-                if (sourceCode == null) return;
-                CompilerCtx.checkTypes(sourceCode);
+                var ctx = new CompilerCtx();
+                if (args.length > 2 || ctx.moduleInterfaces != null) {
+                    checkModules(ctx, Arrays.asList(args).subList(1, args.length));
+                    printCacheStats(ctx);
+                    return;
+                }
+                CompilerCtx.FileInfo file = addFile(ctx, args[1]);
+                if (file == null) return;
+                CompilerCtx.checkTypes(ctx, file);
+                printCacheStats(ctx);
             }
             case "codegen" -> {
-                String exprSrc;
-                try {
-                    exprSrc = new String(System.in.readAllBytes());
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
-                }
-                CompilerCtx.codeEmitForExpression(exprSrc);
+                var ctx = new CompilerCtx();
+                CompilerCtx.FileInfo file = ctx.addStreamedFile("stdin", Channels.newChannel(System.in));
+                CompilerCtx.codeEmitForExpression(ctx, file);
             }
             default -> {
                 System.err.println("Unknown operation: " + operation);
@@ -45,9 +61,32 @@ public class Main {
         }
     }
 
-    private static String readFile(String path) {
+    private static void checkModules(CompilerCtx ctx, List<String> paths) {
+        try {
+            var compiler = new ModuleCompiler(ctx);
+            if (paths.size() == 1) {
+                compiler.compileFileSeparately(Path.of(paths.get(0)));
+            } else {
+                compiler.compileFiles(paths.stream().map(Path::of).toList());
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to read file");
+        } catch (CompilerCtx.ParseError e) {
+            // As for a single file, print what was reported before passing it on.
+            ctx.getCompileErrors().print();
+            throw e;
+        }
+    }
+
+    private static void printCacheStats(CompilerCtx ctx) {
+        if (ctx.astCache != null) {
+            System.err.println(ctx.astCache.formatStats());
+        }
+    }
+
+    private static CompilerCtx.FileInfo addFile(CompilerCtx ctx, String path) {
         try {
-            return Files.readString(Path.of(path));
+            return ctx.addFile(Path.of(path));
         } catch (IOException e) {
             System.err.println("Failed to read file");
             return null;
@@ -2,6 +2,7 @@ package org.example.codegen;
 
 import org.example.CompilerCtx;
 import org.example.parse.Expr;
+import org.example.parse.SourceRange;
 import org.example.typecheck.SymbolTable;
 
 import java.lang.foreign.*;
@@ -80,18 +81,18 @@ public class Codegen {
         switch (expr) {
             case Expr.Number number -> {
                 String reg = registers.reserve();
-                code.opRI("MOV", reg, number.text());
+                code.opRI("MOV", reg, ctx.constants.i32(symbols.lookupConstant(number)));
                 return reg;
             }
-            case Expr.Binary(Expr left, Expr.BinaryOp op, Expr.Number right) -> {
+            case Expr.Binary(Expr left, Expr.BinaryOp op, Expr.Number right, SourceRange range) -> {
                 String leftReg = emitCode(left);
                 switch (op) {
                     case ADD, SUB, MUL, DIV, AND, OR -> {
-                        code.opRI(op.name(), leftReg, right.text());
+                        code.opRI(op.name(), leftReg, ctx.constants.i32(symbols.lookupConstant(right)));
                         return leftReg;
                     }
                     case EQUALS, NOT_EQUALS, LT_EQ, LT, GT_EQ, GT -> {
-                        code.opRI("CMP", leftReg, right.text());
+                        code.opRI("CMP", leftReg, ctx.constants.i32(symbols.lookupConstant(right)));
                         String setOp = switch (op) {
                             case EQUALS -> "SETE";
                             case NOT_EQUALS -> "SETNE";
@@ -5,31 +5,56 @@ import org.example.parse.Expr;
 import org.example.typecheck.FunctionDefinition;
 import org.example.typecheck.Symbol;
 import org.example.typecheck.SymbolTable.FileScope;
+import org.example.typecheck.SymbolTable.Symbols;
 import org.example.typecheck.TypeInfo;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Objects;
 
 public class TreeInterpreter {
     private final CompilerCtx ctx;
-    private final FileScope fileScope;
+    // The module each function of a multi-module program was defined in, or null for a single file.
+    @Nullable
+    private final IdentityHashMap<Symbol.Function, Symbols> definingModules;
     private StackFrame currentFrame;
     private final ArrayDeque<StackFrame> callStack = new ArrayDeque<>();
 
     public TreeInterpreter(CompilerCtx ctx, FileScope fileScope) {
+        this(ctx, fileScope, List.of());
+    }
+
+    /**
+     * Runs {@code main} in {@code fileScope}, which can call the functions of the other modules of the program. A
+     * function's body is run with what was resolved in its own module, as node ids only mean anything within a file.
+     */
+    public TreeInterpreter(CompilerCtx ctx, FileScope fileScope, Collection<FileScope> modules) {
         this.ctx = ctx;
-        this.fileScope = fileScope;
-        this.currentFrame = new StackFrame(lookupEntrypoint(fileScope));
+        if (modules.isEmpty()) {
+            this.definingModules = null;
+        } else {
+            this.definingModules = new IdentityHashMap<>();
+            for (FileScope module : modules) {
+                for (Symbol.Function function : module.symbols().functionDefinitions().keySet()) {
+                    definingModules.put(function, module.symbols());
+                }
+            }
+        }
+        this.currentFrame = new StackFrame(lookupEntrypoint(fileScope), fileScope.symbols());
     }
 
     private static class StackFrame {
         final FunctionDefinition function;
+        // What was resolved in the module the function is defined in.
+        final Symbols symbols;
         private final Object[] locals;
 
-        StackFrame(FunctionDefinition function) {
+        StackFrame(FunctionDefinition function, Symbols symbols) {
             this.function = function;
+            this.symbols = symbols;
             this.locals = new Object[function.numLocals()];
         }
 
@@ -68,7 +93,7 @@ public class TreeInterpreter {
         return switch (expr) {
             case Expr.Assign assign -> {
                 Object rhs = eval(assign.rhs());
-                Symbol.Value lhsSymbol = fileScope.symbols().lookupValue(assign.lhs());
+                Symbol.Value lhsSymbol = currentFrame.symbols.lookupValue(assign.lhs());
                 switch (lhsSymbol) {
                     case Symbol.Global global -> {
                         throw new UnsupportedOperationException("Global variables are not supported yet: " + global);
@@ -109,7 +134,7 @@ public class TreeInterpreter {
                 yield aBoolean.value();
             }
             case Expr.Call call -> {
-                Symbol.Function callSite = fileScope.symbols().lookupCallSite(call);
+                Symbol.Function callSite = currentFrame.symbols.lookupCallSite(call);
                 if (callSite.name().equals("println")) {
                     if (call.arguments().size() != 1) {
                         throw new IllegalStateException("println must have exactly one argument");
@@ -134,7 +159,7 @@ public class TreeInterpreter {
                 yield doFunctionCall(callSite, call.arguments());
             }
             case Expr.Identifier identifier -> {
-                Symbol.Value symbol = fileScope.symbols().lookupValue(identifier);
+                Symbol.Value symbol = currentFrame.symbols.lookupValue(identifier);
                 yield switch (symbol) {
                     case Symbol.Global global -> {
                         throw new UnsupportedOperationException("Global variables are not supported yet: " + global);
@@ -158,7 +183,7 @@ public class TreeInterpreter {
                 }
             }
             case Expr.Number number -> {
-                yield Integer.parseInt(number.text());
+                yield ctx.constants.value(currentFrame.symbols.lookupConstant(number));
             }
             case Expr.Return aReturn -> {
                 Symbol.Function function = currentFrame.function.symbol();
@@ -187,7 +212,7 @@ public class TreeInterpreter {
             }
             case Expr.Let let -> {
                 Object rhs = eval(let.value());
-                Symbol.Value lhsSymbol = fileScope.symbols().lookupValue(let.name());
+                Symbol.Value lhsSymbol = currentFrame.symbols.lookupValue(let.name());
                 switch (lhsSymbol) {
                     case Symbol.Global global -> {
                         throw new UnsupportedOperationException("Global variables are not supported yet: " + global);
@@ -202,9 +227,10 @@ public class TreeInterpreter {
     }
 
     private Object doFunctionCall(Symbol.Function callSite, List<Expr> arguments) {
-        FunctionDefinition functionDefinition = fileScope.symbols().lookupFunctionScope(callSite);
+        Symbols symbols = definingModules == null ? currentFrame.symbols : definingModules.getOrDefault(callSite, currentFrame.symbols);
+        FunctionDefinition functionDefinition = symbols.lookupFunctionScope(callSite);
         callStack.push(currentFrame);
-        StackFrame newFrame = new StackFrame(functionDefinition);
+        StackFrame newFrame = new StackFrame(functionDefinition, symbols);
         for (int i = 0; i < functionDefinition.params().length; i++) {
             Symbol.Param param = functionDefinition.params()[i];
             Expr arg = arguments.get(i);
@@ -225,7 +251,8 @@ public class TreeInterpreter {
     }
 
     /**
-     * Internal to this interpreter, used to implement return statements.
+     * Internal to this interpreter, used to implement return statements. It's thrown for every return executed, so
+     * it doesn't capture a stack trace.
      */
     private static class ReturnException extends RuntimeException {
         /** The value to be returned from this function call, or voidValue() if it's a void-returning function. */
@@ -234,6 +261,7 @@ public class TreeInterpreter {
         final Symbol.Function function;
 
         public ReturnException(Object returnValue, Symbol.Function function) {
+            super(null, null, false, false);
             this.returnValue = returnValue;
             this.function = function;
         }
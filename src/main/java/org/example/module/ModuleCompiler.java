@@ -0,0 +1,203 @@
+package org.example.module;
+
+import org.example.CompileErrors;
+import org.example.CompilerCtx;
+import org.example.parse.Expr;
+import org.example.parse.ParsedFile;
+import org.example.typecheck.ModuleInterface;
+import org.example.typecheck.SymbolTable;
+import org.example.typecheck.TypeChecker;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Function;
+
+/**
+ * Compiles a program made of several files. Each file is a module, which can use the top-level functions of the
+ * modules it names with {@code import name;} declarations at its top. A module's own declarations shadow what it
+ * imports, and a later import shadows an earlier one.
+ * <p>
+ * Parsing a file doesn't depend on any other, so every module is parsed at once on the pool. Their imports then give
+ * the {@link ModuleGraph}, and modules are type checked a wave at a time: every module whose imports have all been
+ * checked is checked at once, each on a symbol table of its own, against the scopes of the modules it imports.
+ * <p>
+ * Every module is parsed even if some fail, so all their parse errors are reported. Checking stops after the first
+ * wave with a failure, as the modules that import a failed one can't be checked. Either way the first failure in
+ * module order is the one thrown.
+ * <p>
+ * A module is checked against the {@link ModuleInterface} of each of its imports rather than their whole scopes. With
+ * {@link CompilerCtx#moduleInterfaces} set, each interface is written out too, so a module can later be compiled on
+ * its own with {@link #compileSeparately}, without parsing or checking the modules it imports again.
+ */
+public class ModuleCompiler {
+    private final CompilerCtx ctx;
+    private final ForkJoinPool pool;
+
+    public ModuleCompiler(CompilerCtx ctx) {
+        this(ctx, ForkJoinPool.commonPool());
+    }
+
+    public ModuleCompiler(CompilerCtx ctx, ForkJoinPool pool) {
+        this.ctx = ctx;
+        this.pool = pool;
+    }
+
+    /** A checked program: its modules, and the scope each of them was checked into, in the order they were given. */
+    public record Program(
+            ModuleGraph graph,
+            Map<String, SymbolTable.FileScope> scopes
+    ) {
+        public SymbolTable.FileScope scope(String module) {
+            SymbolTable.FileScope scope = scopes.get(module);
+            if (scope == null) {
+                throw new IllegalArgumentException("No module named " + module);
+            }
+            return scope;
+        }
+    }
+
+    /** Compiles the files as modules named after the files, without their extensions. */
+    public Program compileFiles(List<Path> paths) throws IOException {
+        var modules = new LinkedHashMap<String, CompilerCtx.FileInfo>();
+        for (Path path : paths) {
+            String name = moduleName(path);
+            if (modules.put(name, ctx.addFile(path)) != null) {
+                throw new IllegalArgumentException("More than one file is named " + name);
+            }
+        }
+        return compile(modules);
+    }
+
+    /** Compiles the files as modules with the given names. */
+    public Program compile(Map<String, CompilerCtx.FileInfo> modules) {
+        Map<String, ParsedFile> parsed = runAll(List.copyOf(modules.keySet()), name -> ctx.parseFile(modules.get(name)));
+        ModuleGraph graph = ModuleGraph.of(ctx, parsed);
+
+        // Only written between waves, the modules being checked just read the interfaces of earlier ones.
+        var checked = new HashMap<String, Checked>();
+        for (List<String> wave : graph.waves()) {
+            checked.putAll(runAll(wave, name -> {
+                var imports = new ArrayList<ModuleInterface>();
+                for (String imported : graph.imports(name)) {
+                    imports.add(checked.get(imported).exports());
+                }
+                SymbolTable.FileScope scope = new TypeChecker(ctx, new SymbolTable(ctx.names)).checkFile(graph.file(name), imports);
+                ctx.forgetSharedNodes(graph.file(name));
+                ModuleInterface exports = ModuleInterface.of(scope);
+                if (ctx.moduleInterfaces != null) {
+                    exports.write(interfacePath(ctx.moduleInterfaces, name));
+                }
+                return new Checked(scope, exports);
+            }));
+        }
+        var scopes = new LinkedHashMap<String, SymbolTable.FileScope>();
+        for (String name : graph.modules()) {
+            scopes.put(name, checked.get(name).scope());
+        }
+        return new Program(graph, scopes);
+    }
+
+    /** Compiles the file on its own as a module named after it, see {@link #compileSeparately}. */
+    public SymbolTable.FileScope compileFileSeparately(Path path) throws IOException {
+        return compileSeparately(moduleName(path), ctx.addFile(path));
+    }
+
+    /**
+     * Compiles one module on its own, against the interfaces written for the modules it imports when they were
+     * compiled, and writes its own interface in turn. Needs {@link CompilerCtx#moduleInterfaces}. An interface of an
+     * older format or a corrupt one is reported at the import like a missing one. Nothing checks that an interface is
+     * still up to date with its module's source, that's up to whoever compiles them.
+     */
+    public SymbolTable.FileScope compileSeparately(String name, CompilerCtx.FileInfo file) {
+        Path directory = ctx.moduleInterfaces;
+        if (directory == null) {
+            throw new IllegalStateException("Compiling a module on its own needs a directory for module interfaces");
+        }
+        ParsedFile parsed = ctx.parseFile(file);
+        var imports = new ArrayList<ModuleInterface>();
+        CompilerCtx.ParseError error = null;
+        for (Expr.Identifier imported : parsed.imports()) {
+            if (imported.text().equals(name)) {
+                // Its interface would be from an earlier compile, if it has one.
+                error = ModuleGraph.report(ctx, imported, CompileErrors.Message.IMPORT_CYCLE, (Object) new String[] { name, name });
+                continue;
+            }
+            ModuleInterface module;
+            try {
+                module = ModuleInterface.read(ctx.names, interfacePath(directory, imported.text()));
+            } catch (ModuleInterface.Unreadable e) {
+                error = ModuleGraph.report(ctx, imported, CompileErrors.Message.STALE_MODULE_INTERFACE, imported.text());
+                continue;
+            }
+            if (module == null) {
+                error = ModuleGraph.report(ctx, imported, CompileErrors.Message.NO_MODULE_INTERFACE);
+            } else {
+                imports.add(module);
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+        SymbolTable.FileScope scope = new TypeChecker(ctx, new SymbolTable(ctx.names)).checkFile(parsed, imports);
+        ctx.forgetSharedNodes(parsed);
+        ModuleInterface.of(scope).write(interfacePath(directory, name));
+        return scope;
+    }
+
+    static Path interfacePath(Path directory, String module) {
+        return directory.resolve(module + ".iface");
+    }
+
+    static String moduleName(Path path) {
+        String name = path.getFileName().toString();
+        int extension = name.lastIndexOf('.');
+        return extension > 0 ? name.substring(0, extension) : name;
+    }
+
+    private record Checked(SymbolTable.FileScope scope, ModuleInterface exports) {}
+
+    /**
+     * The outcome of one module's task. A failure is passed back rather than thrown, as join() would throw a copy of
+     * it wrapping the original.
+     */
+    private record Outcome<T>(@Nullable T value, @Nullable RuntimeException failure) {}
+
+    /** Runs the task for every module, on the pool if there's more than one, and throws the first failure. */
+    private <T> Map<String, T> runAll(List<String> names, Function<String, T> task) {
+        boolean parallel = names.size() >= 2 && pool.getParallelism() >= 2;
+        var outcomes = new ArrayList<ForkJoinTask<Outcome<T>>>(names.size());
+        for (String name : names) {
+            ForkJoinTask<Outcome<T>> outcome = ForkJoinTask.adapt(() -> {
+                try {
+                    return new Outcome<>(task.apply(name), null);
+                } catch (RuntimeException e) {
+                    return new Outcome<>(null, e);
+                }
+            });
+            outcomes.add(parallel ? pool.submit(outcome) : outcome);
+        }
+        var results = new LinkedHashMap<String, T>();
+        RuntimeException failure = null;
+        for (int i = 0; i < names.size(); i++) {
+            // Tasks that weren't submitted to the pool are run here, in order.
+            Outcome<T> outcome = parallel ? outcomes.get(i).join() : outcomes.get(i).invoke();
+            if (outcome.failure() == null) {
+                results.put(names.get(i), outcome.value());
+            } else if (failure == null) {
+                failure = outcome.failure();
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return results;
+    }
+}
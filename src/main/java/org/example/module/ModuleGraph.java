@@ -0,0 +1,150 @@
+package org.example.module;
+
+import org.example.CompileErrors;
+import org.example.CompilerCtx;
+import org.example.parse.Expr;
+import org.example.parse.ParsedFile;
+import org.example.parse.SourceRange;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The modules of a program and which of them import which, from the imports at the top of each file.
+ * <p>
+ * Modules are named by whoever builds the graph, usually after their files. Importing a name that isn't a module, or
+ * a cycle of imports, is a compile error reported at the import.
+ */
+public final class ModuleGraph {
+    private final Map<String, ParsedFile> files;
+    private final Map<String, List<String>> imports;
+    private final List<List<String>> waves;
+
+    private ModuleGraph(Map<String, ParsedFile> files, Map<String, List<String>> imports, List<List<String>> waves) {
+        this.files = files;
+        this.imports = imports;
+        this.waves = Collections.unmodifiableList(waves);
+    }
+
+    /** Works out the graph of the named files, reporting every unknown import, and an import cycle if there is one. */
+    public static ModuleGraph of(CompilerCtx ctx, Map<String, ParsedFile> files) {
+        var imports = new LinkedHashMap<String, List<String>>();
+        CompilerCtx.ParseError error = null;
+        for (Map.Entry<String, ParsedFile> module : files.entrySet()) {
+            var names = new ArrayList<String>(module.getValue().imports().size());
+            for (Expr.Identifier imported : module.getValue().imports()) {
+                if (!files.containsKey(imported.text())) {
+                    error = report(ctx, imported, CompileErrors.Message.UNKNOWN_MODULE);
+                }
+                names.add(imported.text());
+            }
+            imports.put(module.getKey(), Collections.unmodifiableList(names));
+        }
+        if (error != null) {
+            throw error;
+        }
+        return new ModuleGraph(new LinkedHashMap<>(files), imports, findWaves(ctx, files, imports));
+    }
+
+    /** Every module, in the order they were given. */
+    public List<String> modules() {
+        return List.copyOf(files.keySet());
+    }
+
+    public ParsedFile file(String module) {
+        ParsedFile file = files.get(module);
+        if (file == null) {
+            throw new IllegalArgumentException("No module named " + module);
+        }
+        return file;
+    }
+
+    /** The modules the module imports, in the order it imports them. */
+    public List<String> imports(String module) {
+        List<String> names = imports.get(module);
+        if (names == null) {
+            throw new IllegalArgumentException("No module named " + module);
+        }
+        return names;
+    }
+
+    /**
+     * The modules split into the order they can be checked in. Each wave is every module whose imports are all in
+     * earlier waves, so the modules in a wave don't depend on each other. Within a wave they're in the order given.
+     */
+    public List<List<String>> waves() {
+        return waves;
+    }
+
+    private static List<List<String>> findWaves(CompilerCtx ctx, Map<String, ParsedFile> files, Map<String, List<String>> imports) {
+        var waves = new ArrayList<List<String>>();
+        var order = new HashMap<String, Integer>();
+        for (String module : files.keySet()) {
+            order.put(module, order.size());
+        }
+        // Per module, how many of the modules it imports haven't been put in a wave yet.
+        var waiting = new HashMap<String, Integer>();
+        var importers = new HashMap<String, List<String>>();
+        var wave = new ArrayList<String>();
+        for (String module : files.keySet()) {
+            var distinct = new LinkedHashSet<>(imports.get(module));
+            waiting.put(module, distinct.size());
+            for (String imported : distinct) {
+                importers.computeIfAbsent(imported, m -> new ArrayList<>()).add(module);
+            }
+            if (distinct.isEmpty()) {
+                wave.add(module);
+            }
+        }
+        int placed = 0;
+        while (!wave.isEmpty()) {
+            waves.add(Collections.unmodifiableList(wave));
+            placed += wave.size();
+            var next = new ArrayList<String>();
+            for (String module : wave) {
+                for (String importer : importers.getOrDefault(module, List.of())) {
+                    if (waiting.merge(importer, -1, Integer::sum) == 0) {
+                        next.add(importer);
+                    }
+                }
+            }
+            next.sort((a, b) -> Integer.compare(order.get(a), order.get(b)));
+            wave = next;
+        }
+        if (placed < files.size()) {
+            throw reportCycle(ctx, files, imports, waiting);
+        }
+        return waves;
+    }
+
+    /**
+     * Every module left waiting imports at least one other that's left waiting, so following those imports from any
+     * of them has to come back round to a module already seen. That loop is the cycle reported.
+     */
+    private static CompilerCtx.ParseError reportCycle(CompilerCtx ctx, Map<String, ParsedFile> files, Map<String, List<String>> imports, Map<String, Integer> waiting) {
+        var path = new ArrayList<String>();
+        String module = files.keySet().stream().filter(m -> waiting.get(m) > 0).findFirst().orElseThrow();
+        while (!path.contains(module)) {
+            path.add(module);
+            module = imports.get(module).stream().filter(m -> waiting.get(m) > 0).findFirst().orElseThrow();
+        }
+        List<String> cycle = new ArrayList<>(path.subList(path.indexOf(module), path.size()));
+        cycle.add(module);
+        String importer = cycle.get(0);
+        String imported = cycle.get(1);
+        Expr.Identifier at = files.get(importer).imports().stream()
+                .filter(name -> name.text().equals(imported))
+                .findFirst().orElseThrow();
+        return report(ctx, at, CompileErrors.Message.IMPORT_CYCLE, (Object) cycle.toArray(String[]::new));
+    }
+
+    static CompilerCtx.ParseError report(CompilerCtx ctx, Expr.Identifier at, CompileErrors.Message message, Object... args) {
+        SourceRange range = at.range();
+        return ctx.reportParseError(range.fileUid(), range.startOffset(), range.endOffset(), message, args);
+    }
+}
@@ -0,0 +1,132 @@
+package org.example.parse;
+
+import org.example.CompilerCtx;
+import org.example.token.SourceText;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An on-disk cache of parsed files, so unchanged files don't have to be lexed and parsed again on the next run.
+ * <p>
+ * Entries are named by a hash of the file's text and hold the tree in {@link AstFormat}, so a hit is one read and
+ * one pass over the bytes to rebuild the tree. Source offsets depend on the encoding the file was read in, so
+ * that's hashed too. Streamed files can't be hashed without reading them to the end, so they're always parsed.
+ * <p>
+ * Files with parse errors aren't cached, and a corrupt or out of date entry is treated as a miss.
+ */
+public class AstCache {
+    private static final int MAGIC = 0x41535443; // "ASTC"
+    /** Bump whenever the AST or {@link AstFormat} changes. */
+    private static final int FORMAT_VERSION = 3;
+
+    private final Path directory;
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+
+    public AstCache(Path directory) {
+        this.directory = directory;
+    }
+
+    public ParsedFile parseFile(CompilerCtx ctx, CompilerCtx.FileInfo file) {
+        String key = contentKey(file.text());
+        if (key == null) {
+            return ctx.createParser(file).parseFile();
+        }
+        Path entry = directory.resolve(key + ".ast");
+        ParsedFile cached = load(ctx, file, entry);
+        if (cached != null) {
+            hits.incrementAndGet();
+            return cached;
+        }
+        misses.incrementAndGet();
+        ParsedFile parsed = ctx.createParser(file).parseFile();
+        store(entry, file, AstFormat.write(parsed));
+        return parsed;
+    }
+
+    public int hits() {
+        return hits.get();
+    }
+
+    public int misses() {
+        return misses.get();
+    }
+
+    public String formatStats() {
+        int total = hits() + misses();
+        double rate = total == 0 ? 0 : 100.0 * hits() / total;
+        return String.format("AST cache: %d hits, %d misses (%.0f%% hit rate)", hits(), misses(), rate);
+    }
+
+    @Nullable
+    private static ParsedFile load(CompilerCtx ctx, CompilerCtx.FileInfo file, Path entry) {
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(entry);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        ByteBuffer in = ByteBuffer.wrap(bytes);
+        try {
+            if (in.getInt() != MAGIC || in.getInt() != FORMAT_VERSION || in.getInt() != file.text().length()) {
+                return null;
+            }
+            return AstFormat.read(ctx, file, in);
+        } catch (RuntimeException e) {
+            // Truncated or otherwise corrupt, parse the file instead and overwrite it.
+            return null;
+        }
+    }
+
+    private void store(Path entry, CompilerCtx.FileInfo file, byte[] ast) {
+        ByteBuffer out = ByteBuffer.allocate(3 * 4 + ast.length);
+        out.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(file.text().length()).put(ast);
+        try {
+            Files.createDirectories(directory);
+            // Write then move, so a concurrent reader never sees half an entry.
+            Path temp = Files.createTempFile(directory, "entry", ".tmp");
+            Files.write(temp, out.array());
+            Files.move(temp, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Nullable
+    static String contentKey(SourceText text) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        switch (text) {
+            case SourceText.Utf16 utf16 -> {
+                digest.update((byte) 16);
+                digest.update(utf16.string().getBytes(StandardCharsets.UTF_16LE));
+            }
+            case SourceText.Utf8 utf8 -> {
+                digest.update((byte) 8);
+                digest.update(utf8.getBytes().duplicate());
+            }
+            case SourceText.Streamed ignored -> {
+                return null;
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+}
@@ -0,0 +1,420 @@
+package org.example.parse;
+
+import org.example.CompilerCtx;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * The binary form of a {@link ParsedFile} kept by the {@link AstCache}.
+ * <p>
+ * Nodes are written in pre-order, so children follow their parent and need no links. Each node is a tag byte, its
+ * source range as the distance from the previous node's start plus a length, then its fields. Numbers are varints, and
+ * all names and literals go in a string table up front, referred to by index. The node count goes up front too, so
+ * reading a file reserves all its node ids at once. The file's imports come before its items, as identifier nodes.
+ */
+final class AstFormat {
+    private static final int NUMBER = 0;
+    private static final int TRUE = 1;
+    private static final int FALSE = 2;
+    private static final int IDENTIFIER = 3;
+    private static final int BINARY = 4;
+    private static final int UNARY = 5;
+    private static final int CALL = 6;
+    private static final int BLOCK = 7;
+    private static final int IF = 8;
+    private static final int WHILE = 9;
+    private static final int FUNCTION = 10;
+    private static final int LET = 11;
+    private static final int ASSIGN = 12;
+    private static final int RETURN = 13;
+
+    private static final Expr.BinaryOp[] BINARY_OPS = Expr.BinaryOp.values();
+    private static final Expr.UnaryOp[] UNARY_OPS = Expr.UnaryOp.values();
+
+    private AstFormat() {
+    }
+
+    static byte[] write(ParsedFile file) {
+        var writer = new Writer();
+        for (Expr.Identifier module : file.imports()) {
+            writer.write(module);
+        }
+        for (Expr.Item item : file.items()) {
+            writer.write(item);
+        }
+        var out = new Writer();
+        out.putVarint(writer.strings.size());
+        for (String string : writer.strings) {
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            out.putVarint(bytes.length);
+            out.putBytes(bytes, bytes.length);
+        }
+        out.putVarint(file.imports().size());
+        out.putVarint(file.items().size());
+        out.putVarint(writer.nodeCount);
+        out.putBytes(writer.bytes, writer.size);
+        return Arrays.copyOf(out.bytes, out.size);
+    }
+
+    static ParsedFile read(CompilerCtx ctx, CompilerCtx.FileInfo file, ByteBuffer in) {
+        var reader = new Reader(ctx, file.uid(), in);
+        int numImports = reader.getVarint();
+        int numItems = reader.getVarint();
+        int nodeCount = reader.getVarint();
+        // Every node takes a few bytes, so a count this far off can only be corruption. Don't reserve that many ids.
+        if (nodeCount > in.remaining()) {
+            throw new IllegalStateException("More nodes than bytes left to read them from");
+        }
+        reader.reserveNodeIds(nodeCount);
+        try {
+            var imports = new ArrayList<Expr.Identifier>(numImports);
+            for (int i = 0; i < numImports; i++) {
+                imports.add((Expr.Identifier) reader.readItem());
+            }
+            var items = new ArrayList<Expr.Item>(numItems);
+            for (int i = 0; i < numItems; i++) {
+                items.add((Expr.Item) reader.readItem());
+            }
+            if (in.hasRemaining()) {
+                throw new IllegalStateException("Trailing bytes after the last item");
+            }
+            return new ParsedFile(file, imports, items);
+        } catch (RuntimeException e) {
+            // The file will be parsed instead, which can use the ids again.
+            reader.releaseNodeIds();
+            throw e;
+        }
+    }
+
+    private static final class Writer {
+        private byte[] bytes = new byte[1024];
+        private int size;
+        private final List<String> strings = new ArrayList<>();
+        private final HashMap<String, Integer> stringIndices = new HashMap<>();
+        private int previousStart;
+        private int nodeCount;
+
+        void write(Expr expr) {
+            switch (expr) {
+                case Expr.Number number -> {
+                    node(NUMBER, number.range());
+                    putString(number.text());
+                }
+                case Expr.Boolean bool -> node(bool.value() ? TRUE : FALSE, bool.range());
+                case Expr.Identifier identifier -> {
+                    node(IDENTIFIER, identifier.range());
+                    putString(identifier.text());
+                }
+                case Expr.Binary binary -> {
+                    node(BINARY, binary.range());
+                    putVarint(binary.op().ordinal());
+                    write(binary.left());
+                    write(binary.right());
+                }
+                case Expr.Unary unary -> {
+                    node(UNARY, unary.range());
+                    putVarint(unary.op().ordinal());
+                    write(unary.expr());
+                }
+                case Expr.Call call -> {
+                    node(CALL, call.range());
+                    write(call.callee());
+                    writeAll(call.arguments());
+                }
+                case Expr.Block block -> {
+                    node(BLOCK, block.range());
+                    writeAll(block.items());
+                }
+                case Expr.If anIf -> {
+                    node(IF, anIf.range());
+                    write(anIf.condition());
+                    write(anIf.thenBranch());
+                    putVarint(anIf.elseIfs().size());
+                    for (Expr.ElseIf elseIf : anIf.elseIfs()) {
+                        write(elseIf.condition());
+                        write(elseIf.thenBranch());
+                    }
+                    putVarint(anIf.elseBranch() != null ? 1 : 0);
+                    if (anIf.elseBranch() != null) {
+                        write(anIf.elseBranch());
+                    }
+                }
+                case Expr.While aWhile -> {
+                    node(WHILE, aWhile.range());
+                    write(aWhile.condition());
+                    write(aWhile.body());
+                }
+                case Expr.Function function -> {
+                    node(FUNCTION, function.range());
+                    write(function.name());
+                    putType(function.returnType());
+                    putVarint(function.parameters().size());
+                    for (Expr.FuncParam param : function.parameters()) {
+                        write(param.name());
+                        putType(param.type());
+                    }
+                    write(function.body());
+                }
+                case Expr.Let let -> {
+                    node(LET, let.range());
+                    write(let.name());
+                    putType(let.type());
+                    write(let.value());
+                }
+                case Expr.Assign assign -> {
+                    node(ASSIGN, assign.range());
+                    write(assign.lhs());
+                    write(assign.rhs());
+                }
+                case Expr.Return ret -> {
+                    node(RETURN, ret.range());
+                    putVarint(ret.returnValue() != null ? 1 : 0);
+                    if (ret.returnValue() != null) {
+                        write(ret.returnValue());
+                    }
+                }
+            }
+        }
+
+        private void writeAll(List<? extends Expr> exprs) {
+            putVarint(exprs.size());
+            for (Expr expr : exprs) {
+                write(expr);
+            }
+        }
+
+        private void node(int tag, SourceRange range) {
+            if (!range.isPresent()) {
+                throw new IllegalStateException("Only parsed nodes can be written, they need their source ranges");
+            }
+            putByte(tag);
+            nodeCount++;
+            int start = range.startOffset();
+            putZigzag(start - previousStart);
+            putVarint(range.endOffset() - start);
+            previousStart = start;
+        }
+
+        /** 0 for no type, otherwise the string index + 1. */
+        private void putType(@Nullable TypeExpr type) {
+            switch (type) {
+                case null -> putVarint(0);
+                case TypeExpr.Identifier identifier -> putVarint(stringIndex(identifier.name()) + 1);
+            }
+        }
+
+        private void putString(String string) {
+            putVarint(stringIndex(string));
+        }
+
+        private int stringIndex(String string) {
+            Integer index = stringIndices.get(string);
+            if (index == null) {
+                index = strings.size();
+                strings.add(string);
+                stringIndices.put(string, index);
+            }
+            return index;
+        }
+
+        private void putZigzag(int value) {
+            putVarint((value << 1) ^ (value >> 31));
+        }
+
+        void putVarint(int value) {
+            while ((value & ~0x7F) != 0) {
+                putByte((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            putByte(value);
+        }
+
+        private void putByte(int value) {
+            if (size == bytes.length) {
+                bytes = Arrays.copyOf(bytes, size * 2);
+            }
+            bytes[size++] = (byte) value;
+        }
+
+        void putBytes(byte[] source, int length) {
+            if (size + length > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + length));
+            }
+            System.arraycopy(source, 0, bytes, size, length);
+            size += length;
+        }
+    }
+
+    private static final class Reader {
+        private final CompilerCtx ctx;
+        private final int fileUid;
+        private final ByteBuffer in;
+        private final String[] strings;
+        private final int[] nameIds;
+        private SourceRange.Anchor anchor;
+        private int previousStart;
+        private int firstNodeId;
+        private int nextNodeId;
+        private int nodeIdLimit;
+
+        Reader(CompilerCtx ctx, int fileUid, ByteBuffer in) {
+            this.ctx = ctx;
+            this.fileUid = fileUid;
+            this.in = in;
+            this.strings = new String[getVarint()];
+            for (int i = 0; i < strings.length; i++) {
+                byte[] bytes = new byte[getVarint()];
+                in.get(bytes);
+                strings[i] = new String(bytes, StandardCharsets.UTF_8);
+            }
+            this.nameIds = new int[strings.length];
+            Arrays.fill(nameIds, Expr.Identifier.NO_ID);
+        }
+
+        void reserveNodeIds(int count) {
+            firstNodeId = ctx.reserveNodeIds(fileUid, count);
+            nextNodeId = firstNodeId;
+            nodeIdLimit = firstNodeId + count;
+        }
+
+        void releaseNodeIds() {
+            int[] ids = new int[nodeIdLimit - firstNodeId];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = firstNodeId + i;
+            }
+            ctx.releaseNodeIds(fileUid, ids, 0, ids.length);
+            nextNodeId = nodeIdLimit;
+        }
+
+        Expr readItem() {
+            // Each item gets its own anchor at its start, as the parser would have given it.
+            int start = previousStart + peekItemStartDelta();
+            anchor = new SourceRange.Anchor(fileUid, start);
+            return read();
+        }
+
+        private int peekItemStartDelta() {
+            int position = in.position();
+            in.get();
+            int delta = getZigzag();
+            in.position(position);
+            return delta;
+        }
+
+        Expr read() {
+            int tag = in.get();
+            int start = previousStart + getZigzag();
+            int end = start + getVarint();
+            previousStart = start;
+            if (nextNodeId == nodeIdLimit) {
+                throw new IllegalStateException("More nodes than the header said");
+            }
+            var range = new SourceRange(anchor, start - anchor.offset(), end - anchor.offset(), nextNodeId++);
+            return switch (tag) {
+                case NUMBER -> new Expr.Number(strings[getVarint()], range);
+                case TRUE -> new Expr.Boolean(true, range);
+                case FALSE -> new Expr.Boolean(false, range);
+                case IDENTIFIER -> {
+                    int index = getVarint();
+                    yield new Expr.Identifier(strings[index], nameId(index), range);
+                }
+                case BINARY -> {
+                    Expr.BinaryOp op = BINARY_OPS[getVarint()];
+                    Expr left = read();
+                    yield new Expr.Binary(left, op, read(), range);
+                }
+                case UNARY -> {
+                    Expr.UnaryOp op = UNARY_OPS[getVarint()];
+                    yield new Expr.Unary(op, read(), range);
+                }
+                case CALL -> {
+                    var callee = (Expr.Identifier) read();
+                    yield new Expr.Call(callee, readAll(), range);
+                }
+                case BLOCK -> new Expr.Block(readAll(), range);
+                case IF -> {
+                    Expr condition = read();
+                    var thenBranch = (Expr.Block) read();
+                    int numElseIfs = getVarint();
+                    var elseIfs = new ArrayList<Expr.ElseIf>(numElseIfs);
+                    for (int i = 0; i < numElseIfs; i++) {
+                        Expr elseIfCondition = read();
+                        elseIfs.add(new Expr.ElseIf(elseIfCondition, (Expr.Block) read()));
+                    }
+                    Expr.Block elseBranch = getVarint() != 0 ? (Expr.Block) read() : null;
+                    yield new Expr.If(condition, thenBranch, elseIfs, elseBranch, range);
+                }
+                case WHILE -> {
+                    Expr condition = read();
+                    yield new Expr.While(condition, (Expr.Block) read(), range);
+                }
+                case FUNCTION -> {
+                    var name = (Expr.Identifier) read();
+                    TypeExpr returnType = getType();
+                    int numParams = getVarint();
+                    var params = new ArrayList<Expr.FuncParam>(numParams);
+                    for (int i = 0; i < numParams; i++) {
+                        var paramName = (Expr.Identifier) read();
+                        params.add(new Expr.FuncParam(paramName, getType()));
+                    }
+                    yield new Expr.Function(name, returnType, params, (Expr.Block) read(), range);
+                }
+                case LET -> {
+                    var name = (Expr.Identifier) read();
+                    TypeExpr type = getType();
+                    yield new Expr.Let(name, type, read(), range);
+                }
+                case ASSIGN -> {
+                    var lhs = (Expr.Identifier) read();
+                    yield new Expr.Assign(lhs, read(), range);
+                }
+                case RETURN -> new Expr.Return(getVarint() != 0 ? read() : null, range);
+                default -> throw new IllegalStateException("Unknown node tag " + tag);
+            };
+        }
+
+        private List<Expr> readAll() {
+            int count = getVarint();
+            var exprs = new ArrayList<Expr>(count);
+            for (int i = 0; i < count; i++) {
+                exprs.add(read());
+            }
+            return exprs;
+        }
+
+        @Nullable
+        private TypeExpr getType() {
+            int index = getVarint() - 1;
+            return index < 0 ? null : new TypeExpr.Identifier(strings[index], nameId(index));
+        }
+
+        private int nameId(int index) {
+            if (nameIds[index] == Expr.Identifier.NO_ID) {
+                nameIds[index] = ctx.names.intern(strings[index]);
+            }
+            return nameIds[index];
+        }
+
+        private int getZigzag() {
+            int value = getVarint();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        int getVarint() {
+            int value = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = in.get();
+                value |= (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+        }
+    }
+}
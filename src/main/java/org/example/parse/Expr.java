@@ -3,30 +3,100 @@ package org.example.parse;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.List;
+import java.util.Objects;
 import java.util.function.Consumer;
 
+/**
+ * A node of the AST. Nodes compare structurally: the source range isn't part of their equality, so nodes are equal
+ * wherever they came from, and nodes built by hand can be compared against parsed ones.
+ */
 public sealed interface Expr {
+    /** Where this node was parsed from, or {@link SourceRange#NONE} for nodes that weren't parsed. */
+    SourceRange range();
 
     record Number(
-            String text
+            String text,
+            SourceRange range
     ) implements Expr {
+        public Number(String text) {
+            this(text, SourceRange.NONE);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Number other && text.equals(other.text);
+        }
+
+        @Override
+        public int hashCode() {
+            return text.hashCode();
+        }
     }
 
     record Boolean(
-            boolean value
+            boolean value,
+            SourceRange range
     ) implements Expr {
+        public Boolean(boolean value) {
+            this(value, SourceRange.NONE);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Boolean other && value == other.value;
+        }
+
+        @Override
+        public int hashCode() {
+            return java.lang.Boolean.hashCode(value);
+        }
     }
 
+    /**
+     * A use of a name. The id is the name's id in the context's {@link org.example.token.NameTable}, nodes built by
+     * hand have {@link #NO_ID}. Like the source range, the id doesn't take part in equality.
+     */
     record Identifier(
-            String text
+            String text,
+            int id,
+            SourceRange range
     ) implements Expr {
+        public static final int NO_ID = -1;
+
+        public Identifier(String text) {
+            this(text, NO_ID, SourceRange.NONE);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Identifier other && text.equals(other.text);
+        }
+
+        @Override
+        public int hashCode() {
+            return text.hashCode();
+        }
     }
 
     record Binary(
             Expr left,
             BinaryOp op,
-            Expr right
+            Expr right,
+            SourceRange range
     ) implements Expr {
+        public Binary(Expr left, BinaryOp op, Expr right) {
+            this(left, op, right, SourceRange.NONE);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Binary other && left.equals(other.left) && op == other.op && right.equals(other.right);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(left, op, right);
+        }
     }
 
     enum BinaryOp {
@@ -49,8 +119,22 @@ public sealed interface Expr {
 
     record Unary(
             UnaryOp op,
-            Expr expr
+            Expr expr,
+            SourceRange range
     ) implements Expr {
+        public Unary(UnaryOp op, Expr expr) {
+            this(op, expr, SourceRange.NONE);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Unary other && op == other.op && expr.equals(other.expr);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(op, expr);
+        }
     }
 
     enum UnaryOp {
@@ -60,13 +144,41 @@ public sealed interface Expr {
 
     record Call(
             Identifier callee,
-            List<Expr> arguments
+            List<Expr> arguments,
+            SourceRange range
     ) implements Expr {
+        public Call(Identifier callee, List<Expr> arguments) {
+            this(callee, arguments, SourceRange.NONE);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Call other && callee.equals(other.callee) && arguments.equals(other.arguments);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(callee, arguments);
+        }
     }
 
     record Block(
-            List<Expr> items
+            List<Expr> items,
+            SourceRange range
     ) implements Expr {
+        public Block(List<Expr> items) {
+            this(items, SourceRange.NONE);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Block other && items.equals(other.items);
+        }
+
+        @Override
+        public int hashCode() {
+            return items.hashCode();
+        }
     }
 
     record If(
@@ -74,8 +186,26 @@ public sealed interface Expr {
             Expr.Block thenBranch,
             List<ElseIf> elseIfs,
             @Nullable
-            Expr.Block elseBranch
+            Expr.Block elseBranch,
+            SourceRange range
     ) implements Expr {
+        public If(Expr condition, Expr.Block thenBranch, List<ElseIf> elseIfs, @Nullable Expr.Block elseBranch) {
+            this(condition, thenBranch, elseIfs, elseBranch, SourceRange.NONE);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof If other
+                    && condition.equals(other.condition)
+                    && thenBranch.equals(other.thenBranch)
+                    && elseIfs.equals(other.elseIfs)
+                    && Objects.equals(elseBranch, other.elseBranch);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(condition, thenBranch, elseIfs, elseBranch);
+        }
     }
 
     record ElseIf(
@@ -85,8 +215,22 @@ public sealed interface Expr {
 
     record While(
             Expr condition,
-            Expr.Block body
+            Expr.Block body,
+            SourceRange range
     ) implements Expr {
+        public While(Expr condition, Expr.Block body) {
+            this(condition, body, SourceRange.NONE);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof While other && condition.equals(other.condition) && body.equals(other.body);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(condition, body);
+        }
     }
 
     record Function(
@@ -94,8 +238,26 @@ public sealed interface Expr {
             @Nullable
             TypeExpr returnType,
             List<FuncParam> parameters,
-            Expr.Block body
+            Expr.Block body,
+            SourceRange range
     ) implements Item {
+        public Function(Identifier name, @Nullable TypeExpr returnType, List<FuncParam> parameters, Expr.Block body) {
+            this(name, returnType, parameters, body, SourceRange.NONE);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Function other
+                    && name.equals(other.name)
+                    && Objects.equals(returnType, other.returnType)
+                    && parameters.equals(other.parameters)
+                    && body.equals(other.body);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(name, returnType, parameters, body);
+        }
     }
 
     record FuncParam(
@@ -106,8 +268,22 @@ public sealed interface Expr {
     record Let(
             Identifier name,
             TypeExpr type,
-            Expr value
+            Expr value,
+            SourceRange range
     ) implements Item {
+        public Let(Identifier name, TypeExpr type, Expr value) {
+            this(name, type, value, SourceRange.NONE);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Let other && name.equals(other.name) && type.equals(other.type) && value.equals(other.value);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(name, type, value);
+        }
     }
 
     /** The subset of expressions that are allowed at the top level in a file. */
@@ -116,14 +292,42 @@ public sealed interface Expr {
 
     record Assign(
             Identifier lhs,
-            Expr rhs
+            Expr rhs,
+            SourceRange range
     ) implements Expr {
+        public Assign(Identifier lhs, Expr rhs) {
+            this(lhs, rhs, SourceRange.NONE);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Assign other && lhs.equals(other.lhs) && rhs.equals(other.rhs);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(lhs, rhs);
+        }
     }
 
     record Return(
             @Nullable
-            Expr returnValue
+            Expr returnValue,
+            SourceRange range
     ) implements Expr {
+        public Return(@Nullable Expr returnValue) {
+            this(returnValue, SourceRange.NONE);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Return other && Objects.equals(returnValue, other.returnValue);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(returnValue);
+        }
     }
 
     static void traverseAll(Expr firstExpr, Consumer<Expr> callback) {
@@ -0,0 +1,317 @@
+package org.example.parse;
+
+import org.example.CompilerCtx;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * A whole file's AST packed into parallel primitive arrays, with nodes addressed by int id rather than one object per
+ * node. Ids are dense (0 until {@link #size()}), so data about nodes can be kept in plain arrays indexed by id.
+ * <p>
+ * Nodes are numbered in pre-order, and each node's children are a contiguous run of the {@code children} array. The
+ * children and payload of each kind of node are:
+ * <ul>
+ *     <li>NUMBER, IDENTIFIER: no children, the payload is the index of its text in {@link #string}</li>
+ *     <li>BOOLEAN: no children, the payload is 1 for true or 0 for false</li>
+ *     <li>BINARY: [left, right], the payload is the {@link Expr.BinaryOp} ordinal</li>
+ *     <li>UNARY: [expr], the payload is the {@link Expr.UnaryOp} ordinal</li>
+ *     <li>CALL: [callee, arguments...]</li>
+ *     <li>BLOCK: [items...]</li>
+ *     <li>IF: [condition, then, ELSE_IFs..., else?], the payload is 1 if there's an else branch</li>
+ *     <li>ELSE_IF: [condition, then]</li>
+ *     <li>WHILE: [condition, body]</li>
+ *     <li>FUNCTION: [name, FUNC_PARAMs..., body], the payload is the return type's string index, or -1</li>
+ *     <li>FUNC_PARAM: [name], the payload is the type's string index</li>
+ *     <li>LET: [name, value], the payload is the type's string index</li>
+ *     <li>ASSIGN: [lhs, rhs]</li>
+ *     <li>RETURN: [value?]</li>
+ * </ul>
+ * The file's imports are IDENTIFIER nodes, numbered before the items.
+ */
+public final class FlatAst {
+    public enum Kind {
+        NUMBER,
+        BOOLEAN,
+        IDENTIFIER,
+        BINARY,
+        UNARY,
+        CALL,
+        BLOCK,
+        IF,
+        ELSE_IF,
+        WHILE,
+        FUNCTION,
+        FUNC_PARAM,
+        LET,
+        ASSIGN,
+        RETURN,
+    }
+
+    private static final Kind[] KINDS = Kind.values();
+    private static final Expr.BinaryOp[] BINARY_OPS = Expr.BinaryOp.values();
+    private static final Expr.UnaryOp[] UNARY_OPS = Expr.UnaryOp.values();
+
+    private final CompilerCtx.FileInfo file;
+    private byte[] kinds;
+    private int[] payloads;
+    private int[] starts;
+    private int[] ends;
+    /** Node i's children are children[childStarts[i], childStarts[i + 1]). */
+    private int[] childStarts;
+    private int[] children;
+    private int size = 0;
+    private int childrenSize = 0;
+    private final int[] imports;
+    private final int[] items;
+    private final List<String> strings = new ArrayList<>();
+    /** Only needed while building. */
+    @Nullable
+    private HashMap<String, Integer> stringIndices = new HashMap<>();
+
+    private FlatAst(ParsedFile parsedFile, int initialCapacity) {
+        initialCapacity = Math.max(initialCapacity, 16);
+        this.file = parsedFile.file();
+        this.kinds = new byte[initialCapacity];
+        this.payloads = new int[initialCapacity];
+        this.starts = new int[initialCapacity];
+        this.ends = new int[initialCapacity];
+        this.childStarts = new int[initialCapacity + 1];
+        this.children = new int[initialCapacity];
+        this.imports = new int[parsedFile.imports().size()];
+        this.items = new int[parsedFile.items().size()];
+    }
+
+    /** Converts a parsed file into the flat representation. */
+    public static FlatAst from(ParsedFile parsedFile) {
+        var ast = new FlatAst(parsedFile, parsedFile.imports().size() + parsedFile.items().size() * 16);
+        for (int i = 0; i < ast.imports.length; i++) {
+            ast.imports[i] = ast.add(parsedFile.imports().get(i));
+        }
+        for (int i = 0; i < ast.items.length; i++) {
+            ast.items[i] = ast.add(parsedFile.items().get(i));
+        }
+        ast.finish();
+        return ast;
+    }
+
+    public CompilerCtx.FileInfo getFile() {
+        return file;
+    }
+
+    /** The number of nodes, all ids are below this. */
+    public int size() {
+        return size;
+    }
+
+    /** The ids of the IDENTIFIERs the file imports, in order. */
+    public int[] imports() {
+        return imports.clone();
+    }
+
+    /** The ids of the top-level items, in order. */
+    public int[] items() {
+        return items.clone();
+    }
+
+    @NotNull
+    public Kind kind(int node) {
+        return KINDS[kinds[node]];
+    }
+
+    public int childCount(int node) {
+        return childStarts[node + 1] - childStarts[node];
+    }
+
+    public int child(int node, int index) {
+        return children[childStarts[node] + index];
+    }
+
+    public int startOffset(int node) {
+        return starts[node];
+    }
+
+    public int endOffset(int node) {
+        return ends[node];
+    }
+
+    /** The text of a NUMBER or IDENTIFIER. */
+    public String text(int node) {
+        return string(payloads[node]);
+    }
+
+    public boolean booleanValue(int node) {
+        return payloads[node] != 0;
+    }
+
+    public Expr.BinaryOp binaryOp(int node) {
+        return BINARY_OPS[payloads[node]];
+    }
+
+    public Expr.UnaryOp unaryOp(int node) {
+        return UNARY_OPS[payloads[node]];
+    }
+
+    /** The declared type of a LET or FUNC_PARAM, or the return type of a FUNCTION. */
+    @Nullable
+    public TypeExpr type(int node) {
+        int index = payloads[node];
+        return index < 0 ? null : new TypeExpr.Identifier(string(index));
+    }
+
+    public boolean hasElseBranch(int node) {
+        return payloads[node] != 0;
+    }
+
+    public String string(int index) {
+        return strings.get(index);
+    }
+
+    private int add(Expr expr) {
+        return switch (expr) {
+            case Expr.Number number -> addNode(Kind.NUMBER, intern(number.text()), number.range(), 0);
+            case Expr.Boolean bool -> addNode(Kind.BOOLEAN, bool.value() ? 1 : 0, bool.range(), 0);
+            case Expr.Identifier identifier -> addNode(Kind.IDENTIFIER, intern(identifier.text()), identifier.range(), 0);
+            case Expr.Binary binary -> {
+                int node = addNode(Kind.BINARY, binary.op().ordinal(), binary.range(), 2);
+                setChild(node, 0, add(binary.left()));
+                setChild(node, 1, add(binary.right()));
+                yield node;
+            }
+            case Expr.Unary unary -> {
+                int node = addNode(Kind.UNARY, unary.op().ordinal(), unary.range(), 1);
+                setChild(node, 0, add(unary.expr()));
+                yield node;
+            }
+            case Expr.Call call -> {
+                int node = addNode(Kind.CALL, 0, call.range(), 1 + call.arguments().size());
+                setChild(node, 0, add(call.callee()));
+                for (int i = 0; i < call.arguments().size(); i++) {
+                    setChild(node, 1 + i, add(call.arguments().get(i)));
+                }
+                yield node;
+            }
+            case Expr.Block block -> {
+                int node = addNode(Kind.BLOCK, 0, block.range(), block.items().size());
+                for (int i = 0; i < block.items().size(); i++) {
+                    setChild(node, i, add(block.items().get(i)));
+                }
+                yield node;
+            }
+            case Expr.If anIf -> {
+                boolean hasElse = anIf.elseBranch() != null;
+                int node = addNode(Kind.IF, hasElse ? 1 : 0, anIf.range(), 2 + anIf.elseIfs().size() + (hasElse ? 1 : 0));
+                setChild(node, 0, add(anIf.condition()));
+                setChild(node, 1, add(anIf.thenBranch()));
+                int index = 2;
+                for (Expr.ElseIf elseIf : anIf.elseIfs()) {
+                    int elseIfNode = addNode(Kind.ELSE_IF, 0, elseIf.condition().range().to(elseIf.thenBranch().range()), 2);
+                    setChild(elseIfNode, 0, add(elseIf.condition()));
+                    setChild(elseIfNode, 1, add(elseIf.thenBranch()));
+                    setChild(node, index++, elseIfNode);
+                }
+                if (hasElse) {
+                    setChild(node, index, add(anIf.elseBranch()));
+                }
+                yield node;
+            }
+            case Expr.While aWhile -> {
+                int node = addNode(Kind.WHILE, 0, aWhile.range(), 2);
+                setChild(node, 0, add(aWhile.condition()));
+                setChild(node, 1, add(aWhile.body()));
+                yield node;
+            }
+            case Expr.Function function -> {
+                int returnType = function.returnType() == null ? -1 : internType(function.returnType());
+                int node = addNode(Kind.FUNCTION, returnType, function.range(), 2 + function.parameters().size());
+                setChild(node, 0, add(function.name()));
+                int index = 1;
+                for (Expr.FuncParam param : function.parameters()) {
+                    int paramNode = addNode(Kind.FUNC_PARAM, internType(param.type()), param.name().range(), 1);
+                    setChild(paramNode, 0, add(param.name()));
+                    setChild(node, index++, paramNode);
+                }
+                setChild(node, index, add(function.body()));
+                yield node;
+            }
+            case Expr.Let let -> {
+                int node = addNode(Kind.LET, internType(let.type()), let.range(), 2);
+                setChild(node, 0, add(let.name()));
+                setChild(node, 1, add(let.value()));
+                yield node;
+            }
+            case Expr.Assign assign -> {
+                int node = addNode(Kind.ASSIGN, 0, assign.range(), 2);
+                setChild(node, 0, add(assign.lhs()));
+                setChild(node, 1, add(assign.rhs()));
+                yield node;
+            }
+            case Expr.Return ret -> {
+                int node = addNode(Kind.RETURN, 0, ret.range(), ret.returnValue() != null ? 1 : 0);
+                if (ret.returnValue() != null) {
+                    setChild(node, 0, add(ret.returnValue()));
+                }
+                yield node;
+            }
+        };
+    }
+
+    /** Adds a node and reserves space for its children, which have to be filled in with {@link #setChild}. */
+    private int addNode(Kind kind, int payload, SourceRange range, int numChildren) {
+        if (size == kinds.length) {
+            int newCapacity = size * 2;
+            kinds = Arrays.copyOf(kinds, newCapacity);
+            payloads = Arrays.copyOf(payloads, newCapacity);
+            starts = Arrays.copyOf(starts, newCapacity);
+            ends = Arrays.copyOf(ends, newCapacity);
+            childStarts = Arrays.copyOf(childStarts, newCapacity + 1);
+        }
+        if (childrenSize + numChildren > children.length) {
+            children = Arrays.copyOf(children, Math.max(children.length * 2, childrenSize + numChildren));
+        }
+        int node = size++;
+        kinds[node] = (byte) kind.ordinal();
+        payloads[node] = payload;
+        starts[node] = range.startOffset();
+        ends[node] = range.endOffset();
+        childStarts[node] = childrenSize;
+        childrenSize += numChildren;
+        childStarts[node + 1] = childrenSize;
+        return node;
+    }
+
+    private void setChild(int node, int index, int child) {
+        children[childStarts[node] + index] = child;
+    }
+
+    private int internType(TypeExpr type) {
+        return switch (type) {
+            case TypeExpr.Identifier identifier -> intern(identifier.name());
+        };
+    }
+
+    private int intern(String string) {
+        assert stringIndices != null;
+        Integer index = stringIndices.get(string);
+        if (index == null) {
+            index = strings.size();
+            strings.add(string);
+            stringIndices.put(string, index);
+        }
+        return index;
+    }
+
+    private void finish() {
+        stringIndices = null;
+        kinds = Arrays.copyOf(kinds, size);
+        payloads = Arrays.copyOf(payloads, size);
+        starts = Arrays.copyOf(starts, size);
+        ends = Arrays.copyOf(ends, size);
+        childStarts = Arrays.copyOf(childStarts, size + 1);
+        children = Arrays.copyOf(children, childrenSize);
+    }
+}
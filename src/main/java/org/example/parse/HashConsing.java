@@ -0,0 +1,227 @@
+package org.example.parse;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * Replaces structurally identical pure subtrees with one shared node, so repeated literals and constant expressions
+ * only take up memory once and are only type checked once.
+ * <p>
+ * A subtree is pure if its meaning doesn't depend on where it is: literals, and unary and binary operators over pure
+ * subtrees. Anything with a name in it isn't shared, the same name can resolve to a different variable in another
+ * scope, and the symbol tables are keyed by node id.
+ * <p>
+ * Nodes compare structurally whatever their source range, so a shared node only has the range of its first
+ * occurrence. The range of every occurrence is kept in {@link #occurrences} for diagnostics, packed as offsets so it
+ * costs less than the node it replaced. One instance can be used across several files, but only shares nodes within
+ * each file: node ids are per file, so a node shared with another file would collide with that file's own ids. A
+ * file's nodes are only looked up while it's being shared, and its occurrences only until it's been checked, see
+ * {@link #forgetFile}.
+ * <p>
+ * Occurrences are recorded as absolute offsets, so a hash-consed tree can't be moved by the {@link IncrementalParser}.
+ */
+public class HashConsing {
+    private final HashMap<Integer, HashMap<Expr, Expr>> canonicalByFile = new HashMap<>();
+    // Nearly every lookup is in the same file as the one before.
+    private int lastFileUid = -1;
+    private HashMap<Expr, Expr> lastCanonical = null;
+    private final IdentityHashMap<Expr, Occurrences> occurrences = new IdentityHashMap<>();
+    private int sharedCount = 0;
+
+    /** Files can be passed in from several threads, they're shared one at a time. */
+    public synchronized ParsedFile apply(ParsedFile file) {
+        var items = new ArrayList<Expr.Item>(file.items().size());
+        for (Expr.Item item : file.items()) {
+            items.add((Expr.Item) apply(item));
+        }
+        // Nothing else will be shared with this tree, a reparse makes a new one.
+        canonicalByFile.remove(file.file().uid());
+        lastCanonical = null;
+        return new ParsedFile(file.file(), file.imports(), items);
+    }
+
+    /** Drops the occurrences of the file's shared nodes, once nothing will report errors at them. */
+    public synchronized void forgetFile(int fileUid) {
+        occurrences.keySet().removeIf(shared -> shared.range().fileUid() == fileUid);
+        if (fileUid == lastFileUid) {
+            lastCanonical = null;
+        }
+        canonicalByFile.remove(fileUid);
+    }
+
+    /** Returns the expression with its pure subtrees shared, which is the same object if nothing changed. */
+    public Expr apply(Expr expr) {
+        return switch (expr) {
+            case Expr.Number number -> share(number);
+            case Expr.Boolean bool -> share(bool);
+            case Expr.Identifier identifier -> identifier;
+            case Expr.Binary binary -> {
+                Expr left = apply(binary.left());
+                Expr right = apply(binary.right());
+                Expr.Binary result = left == binary.left() && right == binary.right()
+                        ? binary : new Expr.Binary(left, binary.op(), right, binary.range());
+                yield isShared(left) && isShared(right) ? share(result) : result;
+            }
+            case Expr.Unary unary -> {
+                Expr operand = apply(unary.expr());
+                Expr.Unary result = operand == unary.expr() ? unary : new Expr.Unary(unary.op(), operand, unary.range());
+                yield isShared(operand) ? share(result) : result;
+            }
+            case Expr.Call call -> {
+                List<Expr> arguments = applyAll(call.arguments());
+                yield arguments == call.arguments() ? call : new Expr.Call(call.callee(), arguments, call.range());
+            }
+            case Expr.Block block -> applyBlock(block);
+            case Expr.If anIf -> {
+                Expr condition = apply(anIf.condition());
+                Expr.Block thenBranch = applyBlock(anIf.thenBranch());
+                boolean changed = condition != anIf.condition() || thenBranch != anIf.thenBranch();
+                var elseIfs = new ArrayList<Expr.ElseIf>(anIf.elseIfs().size());
+                for (Expr.ElseIf elseIf : anIf.elseIfs()) {
+                    Expr elseIfCondition = apply(elseIf.condition());
+                    Expr.Block elseIfBranch = applyBlock(elseIf.thenBranch());
+                    if (elseIfCondition != elseIf.condition() || elseIfBranch != elseIf.thenBranch()) {
+                        changed = true;
+                        elseIfs.add(new Expr.ElseIf(elseIfCondition, elseIfBranch));
+                    } else {
+                        elseIfs.add(elseIf);
+                    }
+                }
+                Expr.Block elseBranch = anIf.elseBranch() == null ? null : applyBlock(anIf.elseBranch());
+                changed |= elseBranch != anIf.elseBranch();
+                yield changed ? new Expr.If(condition, thenBranch, elseIfs, elseBranch, anIf.range()) : anIf;
+            }
+            case Expr.While aWhile -> {
+                Expr condition = apply(aWhile.condition());
+                Expr.Block body = applyBlock(aWhile.body());
+                yield condition == aWhile.condition() && body == aWhile.body()
+                        ? aWhile : new Expr.While(condition, body, aWhile.range());
+            }
+            case Expr.Function function -> {
+                Expr.Block body = applyBlock(function.body());
+                yield body == function.body() ? function
+                        : new Expr.Function(function.name(), function.returnType(), function.parameters(), body, function.range());
+            }
+            case Expr.Let let -> {
+                Expr value = apply(let.value());
+                yield value == let.value() ? let : new Expr.Let(let.name(), let.type(), value, let.range());
+            }
+            case Expr.Assign assign -> {
+                Expr rhs = apply(assign.rhs());
+                yield rhs == assign.rhs() ? assign : new Expr.Assign(assign.lhs(), rhs, assign.range());
+            }
+            case Expr.Return ret -> {
+                if (ret.returnValue() == null) {
+                    yield ret;
+                }
+                Expr value = apply(ret.returnValue());
+                yield value == ret.returnValue() ? ret : new Expr.Return(value, ret.range());
+            }
+        };
+    }
+
+    /** Where each occurrence of a shared node was in the source, in the order they were seen. */
+    public List<SourceRange> occurrences(Expr shared) {
+        var ranges = new ArrayList<SourceRange>();
+        ranges.add(shared.range());
+        Occurrences later = occurrences.get(shared);
+        if (later != null) {
+            later.addTo(ranges);
+        }
+        return ranges;
+    }
+
+    /** How many nodes have been replaced by an earlier identical one. */
+    public int sharedCount() {
+        return sharedCount;
+    }
+
+    private Expr share(Expr expr) {
+        Expr existing = canonical(expr).putIfAbsent(expr, expr);
+        if (existing == null) {
+            return expr;
+        }
+        if (existing != expr) {
+            // The first occurrence is the shared node's own range, only the later ones need keeping.
+            occurrences.computeIfAbsent(existing, e -> new Occurrences()).add(expr.range());
+            sharedCount++;
+        }
+        return existing;
+    }
+
+    /**
+     * Each occurrence is three ints: file uid, start offset and end offset. Kept in fixed size chunks, common literals
+     * can occur hundreds of thousands of times and one big array would spend as much on growing as it saves.
+     */
+    private static final class Occurrences {
+        private static final int CHUNK_SIZE = 3 * 256;
+
+        private int[][] chunks = new int[1][3];
+        private int size = 0;
+
+        void add(SourceRange range) {
+            int chunk = size / CHUNK_SIZE;
+            int offset = size % CHUNK_SIZE;
+            if (chunk == chunks.length) {
+                chunks = Arrays.copyOf(chunks, chunk * 2);
+            }
+            if (chunks[chunk] == null) {
+                chunks[chunk] = new int[CHUNK_SIZE];
+            } else if (offset == chunks[chunk].length) {
+                chunks[chunk] = Arrays.copyOf(chunks[chunk], Math.min(offset * 2, CHUNK_SIZE));
+            }
+            int[] ranges = chunks[chunk];
+            ranges[offset] = range.fileUid();
+            ranges[offset + 1] = range.startOffset();
+            ranges[offset + 2] = range.endOffset();
+            size += 3;
+        }
+
+        void addTo(List<SourceRange> result) {
+            for (int i = 0; i < size; i += 3) {
+                int[] ranges = chunks[i / CHUNK_SIZE];
+                int offset = i % CHUNK_SIZE;
+                result.add(new SourceRange(new SourceRange.Anchor(ranges[offset], 0), ranges[offset + 1], ranges[offset + 2], SourceRange.NO_NODE));
+            }
+        }
+    }
+
+    private boolean isShared(Expr expr) {
+        // Pure subtrees are small, so hashing one again is cheap.
+        return canonical(expr).get(expr) == expr;
+    }
+
+    private HashMap<Expr, Expr> canonical(Expr expr) {
+        int fileUid = expr.range().fileUid();
+        if (lastCanonical == null || fileUid != lastFileUid) {
+            lastFileUid = fileUid;
+            lastCanonical = canonicalByFile.computeIfAbsent(fileUid, uid -> new HashMap<>());
+        }
+        return lastCanonical;
+    }
+
+    private Expr.Block applyBlock(Expr.Block block) {
+        List<Expr> items = applyAll(block.items());
+        return items == block.items() ? block : new Expr.Block(items, block.range());
+    }
+
+    /** Returns the same list if nothing in it changed. */
+    private List<Expr> applyAll(List<Expr> exprs) {
+        List<Expr> result = null;
+        for (int i = 0; i < exprs.size(); i++) {
+            Expr expr = exprs.get(i);
+            Expr applied = apply(expr);
+            if (applied != expr && result == null) {
+                result = new ArrayList<>(exprs.size());
+                result.addAll(exprs.subList(0, i));
+            }
+            if (result != null) {
+                result.add(applied);
+            }
+        }
+        return result != null ? result : exprs;
+    }
+}
@@ -0,0 +1,160 @@
+package org.example.parse;
+
+import org.example.CompilerCtx;
+import org.example.token.SourceText;
+import org.example.token.TextEdit;
+import org.example.token.Token;
+import org.example.token.TokenType;
+import org.example.token.Tokenizer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Updates a file's AST after an edit by reparsing only the top-level items the edit touches.
+ * <p>
+ * An item is parsed the same way whatever comes before it, so items that end before the edit are kept as they are.
+ * Parsing restarts at the end of the last of those, and carries on item by item until the next token is the start of
+ * an old item that lies after the edit. The text from there on hasn't changed, so the rest of the old items are reused.
+ * Their source ranges are relative to a per-item {@link SourceRange.Anchor}, so moving them by the edit's change in
+ * length is one update per item rather than a copy of the tree. The imports at the top of the file are parsed again
+ * along with the first item.
+ * <p>
+ * The old items are shared with the result and moved in place, so the old ParsedFile is out of date afterwards and
+ * can't be reparsed again. If the new text fails to parse, the file is put back to the old text and the old ParsedFile
+ * can still be reparsed with a different edit. The node ids of the items that were replaced are given back to the context for the next
+ * reparse to use, so a file being edited only needs as many ids as it has nodes. Anything kept by node id for those
+ * items has to be dropped before the new items are resolved, as {@link org.example.typecheck.IncrementalTypeChecker}
+ * does.
+ */
+public class IncrementalParser {
+    private final CompilerCtx ctx;
+
+    public IncrementalParser(CompilerCtx ctx) {
+        if (ctx.hashConsing != null) {
+            // Shared nodes can't be moved with one item, and their ids are still in use by the others.
+            throw new IllegalStateException("Hash-consed trees can't be reparsed incrementally");
+        }
+        this.ctx = ctx;
+    }
+
+    public record Result(
+            ParsedFile file,
+            // How many items had to be parsed again, for checking we do less work than a full reparse.
+            int reparsedCount
+    ) {}
+
+    public Result reparse(ParsedFile oldFile, TextEdit edit) {
+        CompilerCtx.FileInfo oldInfo = oldFile.file();
+        if (ctx.getFile(oldInfo.uid()).text() != oldInfo.text()) {
+            throw new IllegalStateException("The file has been edited since it was parsed, reparse the latest version");
+        }
+        SourceText newText = edit.applyTo(oldInfo.text());
+        CompilerCtx.FileInfo newInfo = ctx.replaceFileText(oldInfo, newText);
+        int delta = newText.length() - oldInfo.text().length();
+        // In code units of the file's encoding, which for UTF-8 isn't the inserted String's length.
+        int insertedEnd = edit.removedEnd() + delta;
+        List<Expr.Item> oldItems = oldFile.items();
+
+        // An edit right at the end of an item can extend its last token, so that item has to be reparsed too.
+        int keepCount = 0;
+        int restartOffset = 0;
+        while (keepCount < oldItems.size()) {
+            int end = itemEnd(oldInfo, oldItems.get(keepCount));
+            if (end >= edit.offset()) {
+                break;
+            }
+            restartOffset = end;
+            keepCount++;
+        }
+        var items = new ArrayList<Expr.Item>(oldItems.size() + 1);
+        items.addAll(oldItems.subList(0, keepCount));
+
+        var parser = new Parser(new Tokenizer(ctx, newInfo, restartOffset), ctx);
+        List<Expr.Identifier> imports;
+        int oldIndex = keepCount;
+        int reparsed = 0;
+        try {
+            imports = keepCount == 0 ? parser.parseImports() : oldFile.imports();
+            while (parser.getTokenizer().peek() != TokenType.EOF) {
+                Token next = parser.getTokenizer().peekToken();
+                if (next.startOffset() >= insertedEnd) {
+                    // Past the edit, see if we're at the start of an old item.
+                    int oldStart = next.startOffset() - delta;
+                    while (oldIndex < oldItems.size() && oldItems.get(oldIndex).range().startOffset() < oldStart) {
+                        oldIndex++;
+                    }
+                    if (oldIndex < oldItems.size() && oldItems.get(oldIndex).range().startOffset() == oldStart) {
+                        break;
+                    }
+                }
+                items.add(parser.parseTopLevelItem());
+                reparsed++;
+            }
+        } catch (RuntimeException e) {
+            // Nothing old has been moved yet, so with its text back the old file can be reparsed with another edit.
+            parser.releaseNodeIds();
+            ctx.replaceFileText(newInfo, oldInfo.text());
+            throw e;
+        }
+        if (parser.getTokenizer().peek() == TokenType.EOF) {
+            oldIndex = oldItems.size();
+        }
+        for (int i = oldIndex; i < oldItems.size(); i++) {
+            Expr.Item item = oldItems.get(i);
+            if (delta != 0) {
+                item.range().anchor().moveBy(delta);
+            }
+            items.add(item);
+        }
+
+        parser.releaseUnusedNodeIds();
+        var replaced = new NodeIds();
+        if (keepCount == 0) {
+            oldFile.imports().forEach(replaced::addTree);
+        }
+        oldItems.subList(keepCount, oldIndex).forEach(replaced::addTree);
+        ctx.releaseNodeIds(oldInfo.uid(), replaced.ids, 0, replaced.count);
+        return new Result(new ParsedFile(newInfo, imports, items), reparsed);
+    }
+
+    /** The ids of every node in some trees, including the names that aren't traversed. */
+    private static final class NodeIds {
+        int[] ids = new int[64];
+        int count = 0;
+
+        void addTree(Expr root) {
+            Expr.traverseAll(root, expr -> {
+                add(expr);
+                switch (expr) {
+                    case Expr.Call call -> add(call.callee());
+                    case Expr.Assign assign -> add(assign.lhs());
+                    case Expr.Let let -> add(let.name());
+                    case Expr.Function function -> {
+                        add(function.name());
+                        function.parameters().forEach(param -> add(param.name()));
+                    }
+                    default -> {
+                    }
+                }
+            });
+        }
+
+        private void add(Expr expr) {
+            if (count == ids.length) {
+                ids = Arrays.copyOf(ids, count * 2);
+            }
+            ids[count++] = expr.range().nodeId();
+        }
+    }
+
+    /** The end of the item's text. A top-level let is followed by a ';' that isn't part of its range. */
+    private int itemEnd(CompilerCtx.FileInfo file, Expr.Item item) {
+        int end = item.range().endOffset();
+        if (item instanceof Expr.Let) {
+            return new Tokenizer(ctx, file, end).next().endOffset();
+        }
+        return end;
+    }
+}
@@ -0,0 +1,97 @@
+package org.example.parse;
+
+import org.example.CompilerCtx;
+import org.example.token.ParallelLexer;
+import org.example.token.TokenBuffer;
+import org.example.token.TokenType;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Parses the top-level items of a file on several threads.
+ * <p>
+ * The file is lexed up front (in parallel too, see {@link ParallelLexer}), then split into runs of items by scanning
+ * the token types: an item starts at a {@code func} or {@code let} outside any braces that's at the start of the file
+ * or straight after a {@code ;} or {@code }}. Those are exactly the places the sequential parser would start its next
+ * item, so each run parses the same as it would have in sequence. Nodes carry their own source ranges, so parser
+ * threads share nothing but the error list.
+ */
+public class ParallelParser {
+    /** Files with fewer tokens than this aren't worth splitting. */
+    public static final int MIN_CHUNK_TOKENS = 16 * 1024;
+
+    private final CompilerCtx ctx;
+    private final ForkJoinPool pool;
+
+    public ParallelParser(CompilerCtx ctx) {
+        this(ctx, ForkJoinPool.commonPool());
+    }
+
+    public ParallelParser(CompilerCtx ctx, ForkJoinPool pool) {
+        this.ctx = ctx;
+        this.pool = pool;
+    }
+
+    public ParsedFile parseFile(CompilerCtx.FileInfo file) {
+        return parseFile(file, MIN_CHUNK_TOKENS);
+    }
+
+    public ParsedFile parseFile(CompilerCtx.FileInfo file, int minChunkTokens) {
+        TokenBuffer tokens = new ParallelLexer(ctx, pool).tokenize(file);
+        if (tokens.size() < minChunkTokens * 2 || pool.getParallelism() < 2) {
+            return new Parser(tokens.cursor(), ctx).parseFile();
+        }
+        int maxChunks = Math.max(1, Math.min(pool.getParallelism() * 4, tokens.size() / minChunkTokens));
+        int[] boundaries = findItemBoundaries(tokens, maxChunks);
+
+        List<ForkJoinTask<ParsedFile>> chunks = new ArrayList<>(boundaries.length);
+        for (int i = 0; i < boundaries.length; i++) {
+            int start = boundaries[i];
+            int end = i + 1 < boundaries.length ? boundaries[i + 1] : tokens.size();
+            chunks.add(pool.submit(() -> new Parser(tokens.cursor(start, end), ctx).parseFile()));
+        }
+
+        var items = new ArrayList<Expr.Item>();
+        for (ForkJoinTask<ParsedFile> chunk : chunks) {
+            items.addAll(chunk.join().items());
+        }
+        // Imports come before the first item, so they're all in the first chunk.
+        return new ParsedFile(file, chunks.get(0).join().imports(), items);
+    }
+
+    /**
+     * Returns the token indices to split the file at, up to {@code maxChunks} of them and roughly evenly spaced. The
+     * first is always 0.
+     */
+    static int[] findItemBoundaries(TokenBuffer tokens, int maxChunks) {
+        var boundaries = new ArrayList<Integer>();
+        boundaries.add(0);
+        int nextTarget = tokens.size() / maxChunks;
+        int depth = 0;
+        for (int i = 1; i < tokens.size() && boundaries.size() < maxChunks; i++) {
+            TokenType previous = tokens.type(i - 1);
+            if (previous == TokenType.LBRACE) {
+                depth++;
+            } else if (previous == TokenType.RBRACE) {
+                depth--;
+                if (depth < 0) {
+                    // Unbalanced, leave the rest to the parser to report.
+                    break;
+                }
+            }
+            if (i < nextTarget || depth != 0) {
+                continue;
+            }
+            TokenType type = tokens.type(i);
+            boolean isItemKeyword = type == TokenType.K_FUNC || type == TokenType.K_LET;
+            if (isItemKeyword && (previous == TokenType.SEMICOLON || previous == TokenType.RBRACE)) {
+                boundaries.add(i);
+                nextTarget = (int) ((long) tokens.size() * boundaries.size() / maxChunks);
+            }
+        }
+        return boundaries.stream().mapToInt(Integer::intValue).toArray();
+    }
+}
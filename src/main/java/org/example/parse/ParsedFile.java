@@ -4,8 +4,16 @@ import org.example.CompilerCtx;
 
 import java.util.List;
 
+/**
+ * A parsed file: the names of the modules it imports, from the {@code import name;} declarations at the top, and its
+ * top-level items.
+ */
 public record ParsedFile(
         CompilerCtx.FileInfo file,
+        List<Expr.Identifier> imports,
         List<Expr.Item> items
 ) {
+    public ParsedFile(CompilerCtx.FileInfo file, List<Expr.Item> items) {
+        this(file, List.of(), items);
+    }
 }
@@ -1,51 +1,120 @@
 package org.example.parse;
 
+import org.example.CompileErrors;
 import org.example.CompilerCtx;
 import org.example.parse.Expr.BinaryOp;
 import org.example.parse.Expr.UnaryOp;
-import org.example.token.SourceSpan;
 import org.example.token.Token;
 import org.example.token.TokenType;
-import org.example.token.Tokenizer;
+import org.example.token.TokenStream;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.IdentityHashMap;
 import java.util.List;
-import java.util.stream.Collectors;
 
 public class Parser {
-    private final Tokenizer tokenizer;
-    private final IdentityHashMap<Expr, Token> exprStarts;
-    private final IdentityHashMap<Expr, Token> exprEnds;
+    /** Node ids are taken from the context a few at a time, so parsers of the same file don't contend for them. */
+    private static final int NODE_ID_BLOCK = 64;
+
+    private final TokenStream tokenizer;
     private final CompilerCtx ctx;
+    /** What the source ranges of nodes in the current top-level item are relative to. */
+    private SourceRange.Anchor anchor;
+    // Every block of node ids taken so far, so a parse that fails can give them all back. The last is being used.
+    private final List<int[]> nodeIdBlocks = new ArrayList<>();
+    private int nextNodeIndex = NODE_ID_BLOCK;
 
-    public Parser(Tokenizer tokenizer, CompilerCtx ctx) {
+    public Parser(TokenStream tokenizer, CompilerCtx ctx) {
         this.tokenizer = tokenizer;
-        this.exprStarts = ctx.exprStarts;
-        this.exprEnds = ctx.exprEnds;
         this.ctx = ctx;
+        this.anchor = new SourceRange.Anchor(tokenizer.getFile().uid(), 0);
     }
 
-    public Tokenizer getTokenizer() {
+    public TokenStream getTokenizer() {
         return tokenizer;
     }
 
     public ParsedFile parseFile() {
+        List<Expr.Identifier> imports;
         var items = new ArrayList<Expr.Item>();
-        while (tokenizer.hasNext()) {
-            items.add(parseTopLevelItem());
+        try {
+            imports = parseImports();
+            while (tokenizer.hasNext()) {
+                items.add(parseTopLevelItem());
+            }
+        } catch (RuntimeException e) {
+            releaseNodeIds();
+            throw e;
         }
-        return new ParsedFile(tokenizer.getFile(), items);
+        releaseUnusedNodeIds();
+        return new ParsedFile(tokenizer.getFile(), imports, items);
     }
 
-    /** Records source range info for the expression then returns it. */
-    private <E extends Expr> E hook(E expr, Token start, Token end) {
-        exprStarts.put(expr, start);
-        exprEnds.put(expr, end);
-        return expr;
+    /** The {@code import name;} declarations at the top of a file, before its first item. */
+    List<Expr.Identifier> parseImports() {
+        var imports = new ArrayList<Expr.Identifier>();
+        while (tokenizer.hasNext() && tokenizer.peek() == TokenType.K_IMPORT) {
+            // Each gets its own anchor, like a top-level item.
+            anchor = new SourceRange.Anchor(tokenizer.getFile().uid(), tokenizer.peekToken().startOffset());
+            expect(TokenType.K_IMPORT);
+            imports.add(createIdentifierExpr(expect(TokenType.IDENTIFIER)));
+            expect(TokenType.SEMICOLON);
+        }
+        return imports;
+    }
+
+    // Each of these is the range of one new node, so takes the next node id.
+
+    private SourceRange range(Token start, Token end) {
+        return SourceRange.of(anchor, start, end, nextNodeId());
+    }
+
+    private SourceRange range(Token token) {
+        return SourceRange.of(anchor, token, token, nextNodeId());
+    }
+
+    private SourceRange range(Token start, SourceRange end) {
+        return SourceRange.of(anchor, start, start, SourceRange.NO_NODE).to(end, nextNodeId());
+    }
+
+    private SourceRange range(SourceRange start, SourceRange end) {
+        return start.to(end, nextNodeId());
+    }
+
+    private SourceRange range(SourceRange start, Token end) {
+        return start.to(end, nextNodeId());
+    }
+
+    private int nextNodeId() {
+        if (nextNodeIndex == NODE_ID_BLOCK) {
+            int[] block = new int[NODE_ID_BLOCK];
+            ctx.takeNodeIds(anchor.fileUid(), block);
+            nodeIdBlocks.add(block);
+            nextNodeIndex = 0;
+        }
+        return nodeIdBlocks.get(nodeIdBlocks.size() - 1)[nextNodeIndex++];
+    }
+
+    /** Gives back the node ids taken but not used, once parsing is done. */
+    void releaseUnusedNodeIds() {
+        if (nextNodeIndex < NODE_ID_BLOCK) {
+            int[] block = nodeIdBlocks.get(nodeIdBlocks.size() - 1);
+            ctx.releaseNodeIds(anchor.fileUid(), block, nextNodeIndex, NODE_ID_BLOCK);
+            // Only what was used is left to give back if it fails later.
+            nodeIdBlocks.set(nodeIdBlocks.size() - 1, Arrays.copyOf(block, nextNodeIndex));
+            nextNodeIndex = NODE_ID_BLOCK;
+        }
+    }
+
+    /** Gives back every node id taken, after a parse that failed, as none of the nodes given them are kept. */
+    void releaseNodeIds() {
+        for (int[] block : nodeIdBlocks) {
+            ctx.releaseNodeIds(anchor.fileUid(), block, 0, block.length);
+        }
+        nodeIdBlocks.clear();
+        nextNodeIndex = NODE_ID_BLOCK;
     }
 
     public Expr.Block parseBlock() {
@@ -59,10 +128,11 @@ public class Parser {
             expect(TokenType.SEMICOLON);
         }
         var rbraceToken = expect(TokenType.RBRACE);
-        return hook(new Expr.Block(items), lbraceToken, rbraceToken);
+        return new Expr.Block(items, range(lbraceToken, rbraceToken));
     }
 
-    private Expr.Item parseTopLevelItem() {
+    Expr.Item parseTopLevelItem() {
+        anchor = new SourceRange.Anchor(tokenizer.getFile().uid(), tokenizer.peekToken().startOffset());
         switch (tokenizer.peek()) {
             case K_FUNC -> {
                 return parseFunction();
@@ -92,7 +162,7 @@ public class Parser {
             int rBP = prefixRightBindingPower(unaryOp);
             Token opToken = tokenizer.next();
             Expr rhs = parseExpr(rBP);
-            lhs = hook(new Expr.Unary(unaryOp, rhs), opToken, exprEnds.get(rhs));
+            lhs = new Expr.Unary(unaryOp, rhs, range(opToken, rhs.range()));
         }
 
         while (true) {
@@ -108,7 +178,7 @@ public class Parser {
                 tokenizer.next();
                 Expr rhs = parseExpr(rBP);
 
-                lhs = hook(new Expr.Binary(lhs, binaryOp, rhs), exprStarts.get(lhs), exprEnds.get(rhs));
+                lhs = new Expr.Binary(lhs, binaryOp, rhs, range(lhs.range(), rhs.range()));
                 continue;
             }
 
@@ -177,14 +247,14 @@ public class Parser {
         var whileToken = expect(TokenType.K_WHILE);
         Expr condition = parseParenExpr();
         Expr.Block body = parseBlock();
-        return hook(new Expr.While(condition, body), whileToken, exprEnds.get(body));
+        return new Expr.While(condition, body, range(whileToken, body.range()));
     }
 
     private Expr.If parseIf() {
         var startToken = expect(TokenType.K_IF);
         Expr condition = parseParenExpr();
         Expr.Block thenBranch = parseBlock();
-        Token endToken = exprEnds.get(thenBranch);
+        SourceRange end = thenBranch.range();
         List<Expr.ElseIf> elseIfs = new ArrayList<>();
         Expr.Block elseBranch = null;
         while (tokenizer.matchConsume(TokenType.K_ELSE)) {
@@ -192,16 +262,16 @@ public class Parser {
                 Expr elseifCond = parseParenExpr();
                 Expr.Block elseifBody = parseBlock();
                 elseIfs.add(new Expr.ElseIf(elseifCond, elseifBody));
-                endToken = exprEnds.get(elseifBody);
+                end = elseifBody.range();
             } else if (tokenizer.peek() == TokenType.LBRACE) {
                 elseBranch = parseBlock();
-                endToken = exprEnds.get(elseBranch);
+                end = elseBranch.range();
                 break;
             } else {
                 throw reportWrongTokenType(TokenType.K_IF, TokenType.LBRACE);
             }
         }
-        return hook(new Expr.If(condition, thenBranch, elseIfs, elseBranch), startToken, endToken);
+        return new Expr.If(condition, thenBranch, elseIfs, elseBranch, range(startToken, end));
     }
 
     private Expr.Function parseFunction() {
@@ -229,7 +299,7 @@ public class Parser {
             returnType = parseType();
         }
         Expr.Block body = parseBlock();
-        return hook(new Expr.Function(name, returnType, params, body), funcToken, exprEnds.get(body));
+        return new Expr.Function(name, returnType, params, body, range(funcToken, body.range()));
     }
 
     private Expr.Let parseLet() {
@@ -239,11 +309,12 @@ public class Parser {
         TypeExpr type = parseType();
         expect(TokenType.ASSIGN);
         Expr value = parseExpr();
-        return hook(new Expr.Let(name, type, value), letToken, exprEnds.get(value));
+        return new Expr.Let(name, type, value, range(letToken, value.range()));
     }
 
     private TypeExpr parseType() {
-        return new TypeExpr.Identifier(tokenizer.getSourceOf(expect(TokenType.IDENTIFIER)));
+        int id = internName(expect(TokenType.IDENTIFIER));
+        return new TypeExpr.Identifier(ctx.names.name(id), id);
     }
 
     private Expr parseParenExpr() {
@@ -275,7 +346,7 @@ public class Parser {
             }
             case NUMBER -> {
                 var token = tokenizer.next();
-                return hook(new Expr.Number(tokenizer.getSourceOf(token)), token, token);
+                return new Expr.Number(tokenizer.getSourceOf(token), range(token));
             }
             case IDENTIFIER -> {
                 Token ident = tokenizer.next();
@@ -290,11 +361,11 @@ public class Parser {
             }
             case K_TRUE -> {
                 var token = tokenizer.next();
-                return hook(new Expr.Boolean(true), token, token);
+                return new Expr.Boolean(true, range(token));
             }
             case K_FALSE -> {
                 var token = tokenizer.next();
-                return hook(new Expr.Boolean(false), token, token);
+                return new Expr.Boolean(false, range(token));
             }
             case K_RETURN -> {
                 var returnToken = tokenizer.next();
@@ -302,7 +373,8 @@ public class Parser {
                 if (tokenizer.peek() != TokenType.SEMICOLON) {
                     retValue = parseExpr();
                 }
-                return hook(new Expr.Return(retValue), returnToken, retValue != null ? exprEnds.get(retValue) : returnToken);
+                SourceRange range = retValue != null ? range(returnToken, retValue.range()) : range(returnToken);
+                return new Expr.Return(retValue, range);
             }
             default -> {
                 throw reportWrongTokenType(TokenType.LBRACE, TokenType.K_LET, TokenType.K_FUNC, TokenType.K_WHILE, TokenType.K_IF, TokenType.LPAREN, TokenType.NUMBER, TokenType.IDENTIFIER, TokenType.K_FALSE, TokenType.K_TRUE, TokenType.K_RETURN);
@@ -312,13 +384,19 @@ public class Parser {
 
     @NotNull
     private Expr.Identifier createIdentifierExpr(Token ident) {
-        return hook(new Expr.Identifier(tokenizer.getSourceOf(ident)), ident, ident);
+        int id = internName(ident);
+        return new Expr.Identifier(ctx.names.name(id), id, range(ident));
+    }
+
+    /** Identifiers are interned as they're parsed, so each distinct name is only copied out of the source once. */
+    private int internName(Token ident) {
+        return ctx.names.intern(tokenizer.getFile().text(), ident.startOffset(), ident.endOffset());
     }
 
     private Expr parseAssign(Expr.Identifier lhs) {
         expect(TokenType.ASSIGN);
         Expr value = parseExpr();
-        return hook(new Expr.Assign(lhs, value), exprStarts.get(lhs), exprEnds.get(value));
+        return new Expr.Assign(lhs, value, range(lhs.range(), value.range()));
     }
 
     private Expr parseCall(Expr.Identifier name) {
@@ -338,7 +416,7 @@ public class Parser {
             }
         }
         var closeParenToken = expect(TokenType.RPAREN);
-        return hook(new Expr.Call(name, args), exprStarts.get(name), closeParenToken);
+        return new Expr.Call(name, args, range(name.range(), closeParenToken));
     }
 
     private Token expect(TokenType type) {
@@ -351,12 +429,10 @@ public class Parser {
 
     @NotNull
     private CompilerCtx.ParseError reportWrongTokenType(Token token, TokenType... expectedTypes) {
-        SourceSpan span = ctx.getSourceSpan(token);
         if (expectedTypes.length == 1) {
-            return ctx.reportParseError(span, " Got " + token.type() + ", expected " + expectedTypes[0].repr);
+            return ctx.reportParseError(token, CompileErrors.Message.WRONG_TOKEN, token.type(), expectedTypes[0]);
         } else {
-            String expected = Arrays.stream(expectedTypes).map(t -> t.repr).collect(Collectors.joining(", "));
-            return ctx.reportParseError(span, " Got " + token.type() + ", expected one of [" + expected + "]");
+            return ctx.reportParseError(token, CompileErrors.Message.WRONG_TOKEN_ONE_OF, token.type(), expectedTypes);
         }
     }
 
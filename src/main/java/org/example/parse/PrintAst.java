@@ -31,6 +31,9 @@ public class PrintAst {
     public void visit(ParsedFile file) {
         println(file.file().name());
         indented(() -> {
+            for (Expr.Identifier module : file.imports()) {
+                println("Import: " + module.text());
+            }
             for (Expr.Item item : file.items()) {
                 visit(item);
             }
@@ -98,7 +101,7 @@ public class PrintAst {
                 println(String.valueOf(bool.value()));
             }
             case Expr.Function function -> {
-                println("Function: " + function.name());
+                println("Function: " + function.name().text());
                 indented(() -> {
                     if (function.returnType() != null) {
                         println("Return type: " + function.returnType());
@@ -143,6 +146,116 @@ public class PrintAst {
         }
     }
 
+    /** Prints a {@link FlatAst} exactly as the tree it was converted from would be printed. */
+    public void visit(FlatAst ast) {
+        println(ast.getFile().name());
+        indented(() -> {
+            for (int module : ast.imports()) {
+                println("Import: " + ast.text(module));
+            }
+            for (int item : ast.items()) {
+                visit(ast, item);
+            }
+        });
+    }
+
+    public void visit(FlatAst ast, int node) {
+        switch (ast.kind(node)) {
+            case BINARY -> {
+                println(ast.binaryOp(node).name());
+                indented(() -> visitChildren(ast, node, 0));
+            }
+            case BLOCK -> {
+                println("Block:");
+                indented(() -> visitChildren(ast, node, 0));
+            }
+            case CALL -> {
+                println("Call:");
+                indented(() -> {
+                    println(ast.text(ast.child(node, 0)));
+                    visitChildren(ast, node, 1);
+                });
+            }
+            case IF -> {
+                println("if");
+                indented(() -> visit(ast, ast.child(node, 0)));
+                println("then");
+                indented(() -> visit(ast, ast.child(node, 1)));
+                int elseIfsEnd = ast.childCount(node) - (ast.hasElseBranch(node) ? 1 : 0);
+                for (int i = 2; i < elseIfsEnd; i++) {
+                    int elseIf = ast.child(node, i);
+                    println("elseif");
+                    indented(() -> visit(ast, ast.child(elseIf, 0)));
+                    indented(() -> visit(ast, ast.child(elseIf, 1)));
+                }
+                if (ast.hasElseBranch(node)) {
+                    println("else");
+                    indented(() -> visit(ast, ast.child(node, elseIfsEnd)));
+                }
+            }
+            case UNARY -> {
+                println(ast.unaryOp(node).name());
+                indented(() -> visit(ast, ast.child(node, 0)));
+            }
+            case WHILE -> {
+                println("while");
+                indented(() -> visit(ast, ast.child(node, 0)));
+                println("do");
+                indented(() -> visit(ast, ast.child(node, 1)));
+            }
+            case NUMBER -> println("Number: " + ast.text(node));
+            case IDENTIFIER -> println("Identifier: " + ast.text(node));
+            case BOOLEAN -> println(String.valueOf(ast.booleanValue(node)));
+            case FUNCTION -> {
+                println("Function: " + ast.text(ast.child(node, 0)));
+                int body = ast.child(node, ast.childCount(node) - 1);
+                indented(() -> {
+                    if (ast.type(node) != null) {
+                        println("Return type: " + ast.type(node));
+                    }
+                    println("Params:");
+                    indented(() -> {
+                        for (int i = 1; i < ast.childCount(node) - 1; i++) {
+                            int param = ast.child(node, i);
+                            println(ast.text(ast.child(param, 0)));
+                            println(String.valueOf(ast.type(param)));
+                        }
+                    });
+                    println("Body:");
+                    indented(() -> visitChildren(ast, body, 0));
+                });
+            }
+            case LET -> {
+                println("Let");
+                indented(() -> {
+                    println(ast.text(ast.child(node, 0)));
+                    println(String.valueOf(ast.type(node)));
+                    visit(ast, ast.child(node, 1));
+                });
+            }
+            case ASSIGN -> {
+                println("Assign");
+                indented(() -> {
+                    println(ast.text(ast.child(node, 0)));
+                    visit(ast, ast.child(node, 1));
+                });
+            }
+            case RETURN -> {
+                println("return");
+                if (ast.childCount(node) > 0) {
+                    indented(() -> visit(ast, ast.child(node, 0)));
+                }
+            }
+            case ELSE_IF, FUNC_PARAM -> throw new IllegalStateException(ast.kind(node) + " is only printed as part of its parent");
+        }
+    }
+
+    private void visitChildren(FlatAst ast, int node, int from) {
+        for (int i = from; i < ast.childCount(node); i++) {
+            visit(ast, ast.child(node, i));
+        }
+    }
+
     private void indented(Runnable block) {
         int prevIndent = indent;
         indent++;
@@ -0,0 +1,100 @@
+package org.example.parse;
+
+import org.example.token.Token;
+
+/**
+ * The part of a file an AST node was parsed from, stored inline in the node.
+ * <p>
+ * Offsets are kept relative to an {@link Anchor} shared by every node in the same top-level item, so that an edit
+ * earlier in the file can move a whole item by updating its anchor, see {@link IncrementalParser}.
+ * <p>
+ * Nodes leave their range out of their own equality, see {@link Expr}. Ranges themselves are equal when they're the
+ * same span from the same anchor for the same node, which stays true as the anchor is moved, so they can be used as
+ * keys.
+ * <p>
+ * Each parsed node's range also carries the node's id, handed out densely per file by
+ * {@link org.example.CompilerCtx#reserveNodeIds}, so the type checker can keep what it resolved for each node in
+ * arrays rather than maps keyed by node. It lives here rather than on the node so that it stays out of the node's
+ * equality too.
+ */
+public record SourceRange(
+        Anchor anchor,
+        int relativeStart,
+        int relativeEnd,
+        int nodeId
+) {
+    /** The node id of anything not built by a parser. */
+    public static final int NO_NODE = -1;
+    public static final SourceRange NONE = new SourceRange(new Anchor(-1, 0), -1, -1, NO_NODE);
+
+    /** Where a top-level item starts. Only moved by incremental reparsing. */
+    public static final class Anchor {
+        private final int fileUid;
+        private int offset;
+
+        public Anchor(int fileUid, int offset) {
+            this.fileUid = fileUid;
+            this.offset = offset;
+        }
+
+        public int fileUid() {
+            return fileUid;
+        }
+
+        public int offset() {
+            return offset;
+        }
+
+        void moveBy(int delta) {
+            offset += delta;
+        }
+    }
+
+    public static SourceRange of(Anchor anchor, Token start, Token end, int nodeId) {
+        if (start.fileUid() != anchor.fileUid || end.fileUid() != anchor.fileUid) {
+            throw new IllegalStateException("tokens are from a different file to the anchor");
+        }
+        return new SourceRange(anchor, start.startOffset() - anchor.offset, end.endOffset() - anchor.offset, nodeId);
+    }
+
+    public int fileUid() {
+        return anchor.fileUid;
+    }
+
+    public int startOffset() {
+        return anchor.offset + relativeStart;
+    }
+
+    public int endOffset() {
+        return anchor.offset + relativeEnd;
+    }
+
+    /** The range from the start of this one to the end of the other, not belonging to any node. */
+    public SourceRange to(SourceRange end) {
+        return to(end, NO_NODE);
+    }
+
+    /** The range from the start of this one to the end of the other, for the node with the given id. */
+    public SourceRange to(SourceRange end, int nodeId) {
+        if (anchor != end.anchor) {
+            throw new IllegalStateException("start and end are in different items");
+        }
+        return new SourceRange(anchor, relativeStart, end.relativeEnd, nodeId);
+    }
+
+    public SourceRange to(Token end, int nodeId) {
+        if (end.fileUid() != anchor.fileUid) {
+            throw new IllegalStateException("start and end are in different files");
+        }
+        return new SourceRange(anchor, relativeStart, end.endOffset() - anchor.offset, nodeId);
+    }
+
+    public boolean isPresent() {
+        return anchor.fileUid >= 0;
+    }
+
+    @Override
+    public String toString() {
+        return "SourceRange[fileUid=" + fileUid() + ", startOffset=" + startOffset() + ", endOffset=" + endOffset() + "]";
+    }
+}
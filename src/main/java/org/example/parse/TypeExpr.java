@@ -5,6 +5,27 @@ package org.example.parse;
  */
 public sealed interface TypeExpr {
     record Identifier(
-            String name
-    ) implements TypeExpr {}
+            String name,
+            // See Expr.Identifier
+            int id
+    ) implements TypeExpr {
+        public Identifier(String name) {
+            this(name, Expr.Identifier.NO_ID);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Identifier other && name.equals(other.name);
+        }
+
+        @Override
+        public int hashCode() {
+            return name.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return "Identifier[name=" + name + "]";
+        }
+    }
 }
@@ -0,0 +1,58 @@
+package org.example.token;
+
+/**
+ * Lookup table classifying ASCII characters for the tokenizer's hot path.
+ * Anything outside ASCII falls back to the {@link Character} methods.
+ */
+final class CharClasses {
+    private static final byte WHITESPACE = 1;
+    private static final byte IDENTIFIER_START = 1 << 1;
+    /** Characters that can continue an identifier, including our '-' and '?'. */
+    private static final byte IDENTIFIER_PART = 1 << 2;
+    private static final byte DIGIT = 1 << 3;
+
+    private static final byte[] TABLE = new byte[128];
+
+    static {
+        // Built from the Character methods so the table agrees with the non-ASCII fallback.
+        for (char c = 0; c < TABLE.length; c++) {
+            byte flags = 0;
+            if (Character.isWhitespace(c)) flags |= WHITESPACE;
+            if (Character.isJavaIdentifierStart(c)) flags |= IDENTIFIER_START;
+            if (Character.isJavaIdentifierPart(c) || c == '-' || c == '?') flags |= IDENTIFIER_PART;
+            if (Character.isDigit(c)) flags |= DIGIT;
+            TABLE[c] = flags;
+        }
+    }
+
+    private CharClasses() {
+    }
+
+    static boolean isWhitespace(int codePoint) {
+        if (codePoint < 0x80) {
+            return (TABLE[codePoint] & WHITESPACE) != 0;
+        }
+        return Character.isWhitespace(codePoint);
+    }
+
+    static boolean isIdentifierStart(int codePoint) {
+        if (codePoint < 0x80) {
+            return (TABLE[codePoint] & IDENTIFIER_START) != 0;
+        }
+        return Character.isJavaIdentifierStart(codePoint);
+    }
+
+    static boolean isIdentifierPart(int codePoint) {
+        if (codePoint < 0x80) {
+            return (TABLE[codePoint] & IDENTIFIER_PART) != 0;
+        }
+        return Character.isJavaIdentifierPart(codePoint);
+    }
+
+    static boolean isDigit(int codePoint) {
+        if (codePoint < 0x80) {
+            return (TABLE[codePoint] & DIGIT) != 0;
+        }
+        return Character.isDigit(codePoint);
+    }
+}
@@ -0,0 +1,89 @@
+package org.example.token;
+
+import org.example.CompilerCtx;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Updates a file's tokens after an edit by re-lexing only around the edit.
+ * <p>
+ * The tokenizer carries no state between tokens except its position, so every token that ends before the edit is
+ * unaffected. Lexing restarts at the end of the last such token and continues until it produces a token that lines up
+ * with a token from before the edit (same type, same length, same position after shifting by the edit's change in
+ * length). From there on the old tokens are reused, with their offsets shifted.
+ * <p>
+ * If the new text fails to lex, the file is put back to the old text, so the old tokens can still be relexed with a
+ * different edit.
+ */
+public class IncrementalLexer {
+    private final CompilerCtx ctx;
+
+    public IncrementalLexer(CompilerCtx ctx) {
+        this.ctx = ctx;
+    }
+
+    public record Result(
+            CompilerCtx.FileInfo file,
+            List<Token> tokens,
+            // How many tokens had to be lexed again, for checking we do less work than a full re-tokenize.
+            int relexedCount
+    ) {}
+
+    public Result relex(CompilerCtx.FileInfo oldFile, List<Token> oldTokens, TextEdit edit) {
+        SourceText newText = edit.applyTo(oldFile.text());
+        CompilerCtx.FileInfo newFile = ctx.replaceFileText(oldFile, newText);
+        int delta = newText.length() - oldFile.text().length();
+        int insertedEnd = edit.removedEnd() + delta;
+
+        // Looking at the char after a token is what ends it, so a token ending exactly at the edit may now be longer.
+        int keepCount = 0;
+        while (keepCount < oldTokens.size() && oldTokens.get(keepCount).endOffset() < edit.offset()) {
+            keepCount++;
+        }
+        var tokens = new ArrayList<Token>(oldTokens.size() + 16);
+        tokens.addAll(oldTokens.subList(0, keepCount));
+        int restartOffset = keepCount == 0 ? 0 : oldTokens.get(keepCount - 1).endOffset();
+
+        var tokenizer = new Tokenizer(ctx, newFile, restartOffset);
+        int oldIndex = keepCount;
+        int relexed = 0;
+        try {
+            while (tokenizer.peek() != TokenType.EOF) {
+                Token token = tokenizer.next();
+                relexed++;
+                if (token.startOffset() >= insertedEnd) {
+                    // Past the edit, see if we've fallen back into step with the old tokens.
+                    int oldStart = token.startOffset() - delta;
+                    while (oldIndex < oldTokens.size() && oldTokens.get(oldIndex).startOffset() < oldStart) {
+                        oldIndex++;
+                    }
+                    if (oldIndex < oldTokens.size() && isSameToken(oldTokens.get(oldIndex), token, delta)) {
+                        for (int i = oldIndex; i < oldTokens.size(); i++) {
+                            tokens.add(shift(oldTokens.get(i), delta));
+                        }
+                        return new Result(newFile, tokens, relexed);
+                    }
+                }
+                tokens.add(token);
+            }
+        } catch (RuntimeException e) {
+            ctx.replaceFileText(newFile, oldFile.text());
+            throw e;
+        }
+        return new Result(newFile, tokens, relexed);
+    }
+
+    private static boolean isSameToken(Token old, Token relexed, int delta) {
+        return old.type() == relexed.type()
+                && old.startOffset() + delta == relexed.startOffset()
+                && old.endOffset() + delta == relexed.endOffset();
+    }
+
+    private static Token shift(Token token, int delta) {
+        if (delta == 0) {
+            return token;
+        }
+        return new Token(token.type(), token.fileUid(), token.startOffset() + delta, token.endOffset() + delta);
+    }
+}
@@ -0,0 +1,59 @@
+package org.example.token;
+
+/**
+ * Recognises keywords directly from a range of the source, without copying it out into a string.
+ * <p>
+ * The hash of a keyword is three times its first char + last char + length, which happens to be collision-free for
+ * all our keywords in a 32 slot table. Adding a keyword that collides will fail loudly when this class is initialised.
+ */
+final class Keywords {
+    private static final int TABLE_SIZE = 32;
+    private static final TokenType[] TABLE = new TokenType[TABLE_SIZE];
+    private static final int MAX_LENGTH;
+
+    static {
+        int maxLength = 0;
+        for (TokenType type : TokenType.values()) {
+            if (!type.name().startsWith("K_")) {
+                continue;
+            }
+            String keyword = type.repr;
+            int slot = hash(keyword.charAt(0), keyword.charAt(keyword.length() - 1), keyword.length());
+            if (TABLE[slot] != null) {
+                throw new IllegalStateException("Keyword hash collision between " + TABLE[slot] + " and " + type);
+            }
+            TABLE[slot] = type;
+            maxLength = Math.max(maxLength, keyword.length());
+        }
+        MAX_LENGTH = maxLength;
+    }
+
+    private Keywords() {
+    }
+
+    private static int hash(int first, int last, int length) {
+        return (3 * first + last + length) & (TABLE_SIZE - 1);
+    }
+
+    /** Returns the keyword type for source[start, end), or IDENTIFIER if it's not a keyword. */
+    static TokenType lookup(SourceText source, int start, int end) {
+        int length = end - start;
+        if (length > MAX_LENGTH) {
+            return TokenType.IDENTIFIER;
+        }
+        TokenType candidate = TABLE[hash(source.unitAt(start), source.unitAt(end - 1), length)];
+        if (candidate == null) {
+            return TokenType.IDENTIFIER;
+        }
+        String keyword = candidate.repr;
+        if (keyword.length() != length) {
+            return TokenType.IDENTIFIER;
+        }
+        for (int i = 0; i < length; i++) {
+            if (source.unitAt(start + i) != keyword.charAt(i)) {
+                return TokenType.IDENTIFIER;
+            }
+        }
+        return candidate;
+    }
+}
@@ -0,0 +1,75 @@
+package org.example.token;
+
+import java.util.Arrays;
+
+/**
+ * Maps offsets within a file to line/column numbers.
+ * The table of line start offsets is built on first use, after which every lookup is a binary search.
+ * Streamed sources track their own line numbers for the part of the stream that's still buffered.
+ */
+public final class LineIndex {
+    private final SourceText source;
+    private volatile int[] lineStarts;
+
+    public LineIndex(SourceText source) {
+        this.source = source;
+    }
+
+    private int[] getLineStarts() {
+        int[] starts = lineStarts;
+        if (starts == null) {
+            starts = computeLineStarts(source);
+            lineStarts = starts;
+        }
+        return starts;
+    }
+
+    private static int[] computeLineStarts(SourceText source) {
+        int[] starts = new int[16];
+        int count = 1; // starts[0] == 0, the first line
+        for (int i = 0; i < source.length(); i++) {
+            if (source.unitAt(i) == '\n') {
+                if (count == starts.length) {
+                    starts = Arrays.copyOf(starts, count * 2);
+                }
+                starts[count++] = i + 1;
+            }
+        }
+        return Arrays.copyOf(starts, count);
+    }
+
+    public int getLineCount() {
+        return getLineStarts().length;
+    }
+
+    /** Returns the offset of the first character on the given 1-based line. */
+    public int getLineStart(int line) {
+        return getLineStarts()[line - 1];
+    }
+
+    public SourceLoc getSourceLocation(int offset) {
+        if (source instanceof SourceText.Streamed streamed) {
+            // There's no table for streams, as that would grow with the input.
+            return streamed.getSourceLocation(offset);
+        }
+        if (offset <= 0) {
+            return new SourceLoc(offset, 1, 1);
+        }
+        if (offset > source.length()) {
+            throw new IndexOutOfBoundsException("offset " + offset + " is past the end of the file (" + source.length() + ")");
+        }
+        int[] starts = getLineStarts();
+        // Find the last line that starts at or before the offset.
+        int lo = 0;
+        int hi = starts.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (starts[mid] <= offset) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return new SourceLoc(offset, lo + 1, offset - starts[lo] + 1);
+    }
+}
@@ -0,0 +1,108 @@
+package org.example.token;
+
+import java.util.Arrays;
+
+/**
+ * Interns identifiers, giving each distinct name a dense int id starting at 0.
+ * <p>
+ * Names are hashed and compared straight from the source text, so an identifier seen before costs no allocation. Each
+ * name's String is only created the first time it's seen, and then shared by every node that uses it.
+ * <p>
+ * One table is shared by a {@link org.example.CompilerCtx}, so interning is synchronized for the parallel parser.
+ * Looking up a name by id isn't, an id is only handed out after its name is stored.
+ */
+public final class NameTable {
+    private volatile String[] names = new String[256];
+    private int[] hashes = new int[256];
+    private int size;
+    // Open addressing, each slot is an id + 1, or 0 if empty.
+    private int[] slots = new int[512];
+
+    public synchronized int intern(String name) {
+        int hash = name.hashCode();
+        int mask = slots.length - 1;
+        for (int i = hash & mask; ; i = (i + 1) & mask) {
+            int slot = slots[i];
+            if (slot == 0) {
+                return add(name, hash, i);
+            }
+            if (hashes[slot - 1] == hash && names[slot - 1].equals(name)) {
+                return slot - 1;
+            }
+        }
+    }
+
+    /** Interns {@code text[start, end)}, only allocating if it's a new name. */
+    public synchronized int intern(SourceText text, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            int unit = text.unitAt(i);
+            if (unit >= 0x80) {
+                // Code units only line up with chars for ASCII.
+                return intern(text.slice(start, end));
+            }
+            hash = 31 * hash + unit;
+        }
+        int mask = slots.length - 1;
+        for (int i = hash & mask; ; i = (i + 1) & mask) {
+            int slot = slots[i];
+            if (slot == 0) {
+                return add(text.slice(start, end), hash, i);
+            }
+            if (hashes[slot - 1] == hash && matches(names[slot - 1], text, start, end)) {
+                return slot - 1;
+            }
+        }
+    }
+
+    public String name(int id) {
+        return names[id];
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    private static boolean matches(String name, SourceText text, int start, int end) {
+        if (name.length() != end - start) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (name.charAt(i) != text.unitAt(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int add(String name, int hash, int slot) {
+        int id = size;
+        if (id == hashes.length) {
+            hashes = Arrays.copyOf(hashes, id * 2);
+            String[] grown = Arrays.copyOf(names, id * 2);
+            grown[id] = name;
+            names = grown;
+        } else {
+            names[id] = name;
+        }
+        hashes[id] = hash;
+        slots[slot] = id + 1;
+        size++;
+        if (size * 2 > slots.length) {
+            rehash();
+        }
+        return id;
+    }
+
+    private void rehash() {
+        slots = new int[slots.length * 2];
+        int mask = slots.length - 1;
+        for (int id = 0; id < size; id++) {
+            int i = hashes[id] & mask;
+            while (slots[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            slots[i] = id + 1;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package org.example.token;
+
+import org.example.CompilerCtx;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Lexes large files on several threads, by splitting them at top-level item boundaries.
+ * <p>
+ * A boundary is a line that starts with {@code func} or {@code let} in column 0. Comments can't span lines and no
+ * token can contain a newline, so a line start is always the start of a token and never inside a comment; lexing from
+ * there gives exactly the same tokens as lexing the whole file. Top-level items are chosen over any line start so that
+ * the same boundaries can be used to parse items in parallel.
+ */
+public class ParallelLexer {
+    /** Files smaller than this aren't worth splitting. */
+    public static final int MIN_CHUNK_SIZE = 64 * 1024;
+
+    private final CompilerCtx ctx;
+    private final ForkJoinPool pool;
+
+    public ParallelLexer(CompilerCtx ctx) {
+        this(ctx, ForkJoinPool.commonPool());
+    }
+
+    public ParallelLexer(CompilerCtx ctx, ForkJoinPool pool) {
+        this.ctx = ctx;
+        this.pool = pool;
+    }
+
+    public TokenBuffer tokenize(CompilerCtx.FileInfo file) {
+        return tokenize(file, MIN_CHUNK_SIZE);
+    }
+
+    public TokenBuffer tokenize(CompilerCtx.FileInfo file, int minChunkSize) {
+        SourceText text = file.text();
+        if (text instanceof SourceText.Streamed || text.length() < minChunkSize * 2 || pool.getParallelism() < 2) {
+            return new Tokenizer(ctx, file).tokenizeToBuffer();
+        }
+        int maxChunks = Math.max(1, Math.min(pool.getParallelism() * 4, text.length() / minChunkSize));
+        int[] boundaries = findItemBoundaries(text, maxChunks);
+
+        List<ForkJoinTask<TokenBuffer>> chunks = new ArrayList<>(boundaries.length);
+        for (int i = 0; i < boundaries.length; i++) {
+            int start = boundaries[i];
+            int end = i + 1 < boundaries.length ? boundaries[i + 1] : Integer.MAX_VALUE;
+            chunks.add(pool.submit(() -> new Tokenizer(ctx, file, start).tokenizeToBuffer(end)));
+        }
+
+        List<TokenBuffer> parts = new ArrayList<>(chunks.size());
+        for (ForkJoinTask<TokenBuffer> chunk : chunks) {
+            parts.add(chunk.join());
+        }
+        return TokenBuffer.concat(file, parts);
+    }
+
+    /**
+     * Finds up to {@code maxChunks} offsets to split the text at, roughly evenly spaced. The first is always 0.
+     */
+    public static int[] findItemBoundaries(SourceText text, int maxChunks) {
+        int length = text.length();
+        var boundaries = new ArrayList<Integer>();
+        boundaries.add(0);
+        for (int i = 1; i < maxChunks; i++) {
+            int target = (int) ((long) length * i / maxChunks);
+            int previous = boundaries.get(boundaries.size() - 1);
+            int boundary = findItemStartAfter(text, Math.max(target, previous + 1));
+            if (boundary < 0) {
+                break;
+            }
+            if (boundary > previous) {
+                boundaries.add(boundary);
+            }
+        }
+        return boundaries.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /** Returns the first offset at or after {@code from} that starts a line beginning with an item keyword, or -1. */
+    private static int findItemStartAfter(SourceText text, int from) {
+        int length = text.length();
+        for (int i = Math.max(from, 1); i < length; i++) {
+            if (text.unitAt(i - 1) == '\n' && (startsWithKeyword(text, i, "func") || startsWithKeyword(text, i, "let"))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean startsWithKeyword(SourceText text, int offset, String keyword) {
+        int end = offset + keyword.length();
+        if (end >= text.length()) {
+            return false;
+        }
+        for (int i = 0; i < keyword.length(); i++) {
+            if (text.unitAt(offset + i) != keyword.charAt(i)) {
+                return false;
+            }
+        }
+        // Rule out identifiers that just start with the keyword, like `funcs`.
+        return !CharClasses.isIdentifierPart(text.unitAt(end));
+    }
+}
@@ -0,0 +1,327 @@
+package org.example.token;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The contents of a source file, addressed by offset in code units.
+ * <p>
+ * In-memory sources are Java strings, so their units are UTF-16 chars. Files read from disk are kept as UTF-8 bytes
+ * (usually memory-mapped) so they don't have to be decoded and copied into the heap before lexing; their offsets and
+ * columns count bytes. Streams are read as UTF-8 through a fixed-size buffer, see {@link Streamed}.
+ */
+public sealed interface SourceText {
+    int length();
+
+    /** Whether there's a code unit at the offset, ie the offset is before the end of the file. */
+    default boolean hasUnitAt(int offset) {
+        return offset < length();
+    }
+
+    /**
+     * Tells the source that nothing before the offset will be read again. Only streamed sources make use of this, to
+     * free up buffer space.
+     */
+    default void discardBefore(int offset) {
+    }
+
+    /** Returns the code unit at the offset. Anything below 0x80 is ASCII in both encodings. */
+    int unitAt(int offset);
+
+    /** Decodes the character starting at the offset. */
+    int codePointAt(int offset);
+
+    /** The number of code units taken up by the character starting at the offset. */
+    int codePointLength(int offset);
+
+    String slice(int start, int end);
+
+    static SourceText of(String string) {
+        return new Utf16(string);
+    }
+
+    static SourceText utf8(ByteBuffer bytes) {
+        return new Utf8(bytes);
+    }
+
+    static SourceText streamed(ReadableByteChannel channel, int bufferSize) {
+        return new Streamed(channel, bufferSize);
+    }
+
+    int REPLACEMENT_CHAR = 0xFFFD;
+
+    private static int decodeUtf8(SourceText text, int offset) {
+        int lead = text.unitAt(offset);
+        if (lead < 0x80) {
+            return lead;
+        }
+        int length = utf8Length(text, offset);
+        if (length == 1) {
+            return REPLACEMENT_CHAR;
+        }
+        int codePoint = lead & (0xFF >> (length + 1));
+        for (int i = 1; i < length; i++) {
+            codePoint = (codePoint << 6) | (text.unitAt(offset + i) & 0x3F);
+        }
+        return codePoint;
+    }
+
+    private static int utf8Length(SourceText text, int offset) {
+        int lead = text.unitAt(offset);
+        int length;
+        if (lead < 0x80) {
+            return 1;
+        } else if ((lead & 0xE0) == 0xC0) {
+            length = 2;
+        } else if ((lead & 0xF0) == 0xE0) {
+            length = 3;
+        } else if ((lead & 0xF8) == 0xF0) {
+            length = 4;
+        } else {
+            return 1;
+        }
+        for (int i = 1; i < length; i++) {
+            if (!text.hasUnitAt(offset + i) || (text.unitAt(offset + i) & 0xC0) != 0x80) {
+                // Malformed, treat the lead byte on its own as a replacement char.
+                return 1;
+            }
+        }
+        return length;
+    }
+
+    record Utf16(String string) implements SourceText {
+        @Override
+        public int length() {
+            return string.length();
+        }
+
+        @Override
+        public boolean hasUnitAt(int offset) {
+            return offset < string.length();
+        }
+
+        @Override
+        public int unitAt(int offset) {
+            return string.charAt(offset);
+        }
+
+        @Override
+        public int codePointAt(int offset) {
+            return string.codePointAt(offset);
+        }
+
+        @Override
+        public int codePointLength(int offset) {
+            return Character.charCount(string.codePointAt(offset));
+        }
+
+        @Override
+        public String slice(int start, int end) {
+            return string.substring(start, end);
+        }
+
+        @Override
+        public String toString() {
+            return string;
+        }
+    }
+
+    final class Utf8 implements SourceText {
+        private final ByteBuffer bytes;
+
+        private Utf8(ByteBuffer bytes) {
+            this.bytes = bytes;
+        }
+
+        public ByteBuffer getBytes() {
+            return bytes.duplicate();
+        }
+
+        @Override
+        public int length() {
+            return bytes.limit();
+        }
+
+        @Override
+        public boolean hasUnitAt(int offset) {
+            return offset < bytes.limit();
+        }
+
+        @Override
+        public int unitAt(int offset) {
+            return bytes.get(offset) & 0xFF;
+        }
+
+        @Override
+        public int codePointAt(int offset) {
+            return decodeUtf8(this, offset);
+        }
+
+        @Override
+        public int codePointLength(int offset) {
+            return utf8Length(this, offset);
+        }
+
+        @Override
+        public String slice(int start, int end) {
+            if (bytes.hasArray()) {
+                return new String(bytes.array(), bytes.arrayOffset() + start, end - start, StandardCharsets.UTF_8);
+            }
+            byte[] copy = new byte[end - start];
+            bytes.get(start, copy);
+            return new String(copy, StandardCharsets.UTF_8);
+        }
+
+        /** Decodes the whole file, this makes an in-heap copy. */
+        @Override
+        public String toString() {
+            return slice(0, length());
+        }
+    }
+
+    /**
+     * UTF-8 read from a channel through a fixed-size ring buffer, so that tokenizing needs the same amount of memory
+     * regardless of the input size. Offsets are still absolute from the start of the stream, but only the range from
+     * the last {@link #discardBefore} mark up to what's been read so far can be accessed.
+     */
+    final class Streamed implements SourceText {
+        public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+        private final ReadableByteChannel channel;
+        private final byte[] ring;
+        private final int mask;
+        /** Offsets [windowStart, windowEnd) are held in the ring buffer. */
+        private int windowStart = 0;
+        private int windowEnd = 0;
+        private int discardMark = 0;
+        private boolean reachedEnd = false;
+        /** The line containing windowStart, and the offset that line starts at, for resolving source locations. */
+        private int windowStartLine = 1;
+        private int windowStartLineOffset = 0;
+
+        Streamed(ReadableByteChannel channel, int bufferSize) {
+            if (Integer.bitCount(bufferSize) != 1) {
+                throw new IllegalArgumentException("Buffer size must be a power of two, got " + bufferSize);
+            }
+            this.channel = channel;
+            this.ring = new byte[bufferSize];
+            this.mask = bufferSize - 1;
+        }
+
+        /** The number of bytes read so far. */
+        @Override
+        public int length() {
+            return windowEnd;
+        }
+
+        @Override
+        public boolean hasUnitAt(int offset) {
+            return offset < windowEnd || fill(offset);
+        }
+
+        @Override
+        public void discardBefore(int offset) {
+            if (offset > discardMark) {
+                discardMark = Math.min(offset, windowEnd);
+            }
+        }
+
+        @Override
+        public int unitAt(int offset) {
+            if (offset >= windowEnd && !fill(offset)) {
+                throw new IndexOutOfBoundsException("offset " + offset + " is past the end of the stream");
+            }
+            if (offset < windowStart) {
+                throw new IllegalStateException("offset " + offset + " has already been discarded from the stream buffer");
+            }
+            return ring[offset & mask] & 0xFF;
+        }
+
+        @Override
+        public int codePointAt(int offset) {
+            return decodeUtf8(this, offset);
+        }
+
+        @Override
+        public int codePointLength(int offset) {
+            return utf8Length(this, offset);
+        }
+
+        @Override
+        public String slice(int start, int end) {
+            if (start < windowStart || (end > windowEnd && !fill(end - 1))) {
+                throw new IllegalStateException("[" + start + ", " + end + ") is not in the stream buffer");
+            }
+            byte[] bytes = new byte[end - start];
+            int first = Math.min(bytes.length, ring.length - (start & mask));
+            System.arraycopy(ring, start & mask, bytes, 0, first);
+            System.arraycopy(ring, 0, bytes, first, bytes.length - first);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        /** Resolves a location in the part of the stream that's still buffered. */
+        public SourceLoc getSourceLocation(int offset) {
+            if (offset <= 0) {
+                return new SourceLoc(offset, 1, 1);
+            }
+            if (offset < windowStart) {
+                throw new IllegalStateException("offset " + offset + " has already been discarded from the stream buffer");
+            }
+            int line = windowStartLine;
+            int lineOffset = windowStartLineOffset;
+            for (int i = windowStart; i < offset; i++) {
+                if (ring[i & mask] == '\n') {
+                    line++;
+                    lineOffset = i + 1;
+                }
+            }
+            return new SourceLoc(offset, line, offset - lineOffset + 1);
+        }
+
+        /** Reads until the offset is buffered or the stream ends, returning whether the offset is now available. */
+        private boolean fill(int offset) {
+            while (offset >= windowEnd && !reachedEnd) {
+                if (windowEnd - windowStart == ring.length) {
+                    advanceWindowStart();
+                    if (windowEnd - windowStart == ring.length) {
+                        throw new IllegalStateException("Token starting at offset " + windowStart + " doesn't fit in the " + ring.length + " byte stream buffer");
+                    }
+                }
+                int writeIndex = windowEnd & mask;
+                int free = ring.length - (windowEnd - windowStart);
+                int contiguous = Math.min(free, ring.length - writeIndex);
+                int read;
+                try {
+                    read = channel.read(ByteBuffer.wrap(ring, writeIndex, contiguous));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                if (read < 0) {
+                    reachedEnd = true;
+                } else {
+                    windowEnd += read;
+                }
+            }
+            return offset < windowEnd;
+        }
+
+        private void advanceWindowStart() {
+            for (int i = windowStart; i < discardMark; i++) {
+                if (ring[i & mask] == '\n') {
+                    windowStartLine++;
+                    windowStartLineOffset = i + 1;
+                }
+            }
+            windowStart = discardMark;
+        }
+
+        /** Only describes the stream, which can't be read back, as it's only ever held a buffer's worth at a time. */
+        @Override
+        public String toString() {
+            return "Streamed[" + windowStart + ".." + windowEnd + "]";
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package org.example.token;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Replaces {@code removedLength} code units at {@code offset} with {@code insertedText}, eg a keystroke or paste in
+ * an editor.
+ */
+public record TextEdit(
+        int offset,
+        int removedLength,
+        String insertedText
+) {
+    public TextEdit {
+        if (offset < 0 || removedLength < 0) {
+            throw new IllegalArgumentException("offset and removedLength must not be negative");
+        }
+    }
+
+    /** The end of the removed range, in the text before the edit. */
+    public int removedEnd() {
+        return offset + removedLength;
+    }
+
+    /** Returns the edited text, in the same encoding as the original. */
+    public SourceText applyTo(SourceText text) {
+        if (removedEnd() > text.length()) {
+            throw new IllegalArgumentException("Edit " + this + " goes past the end of the text (" + text.length() + ")");
+        }
+        return switch (text) {
+            case SourceText.Utf16 utf16 -> {
+                String string = utf16.string();
+                yield SourceText.of(string.substring(0, offset) + insertedText + string.substring(removedEnd()));
+            }
+            case SourceText.Utf8 utf8 -> {
+                ByteBuffer bytes = utf8.getBytes();
+                byte[] inserted = insertedText.getBytes(StandardCharsets.UTF_8);
+                int tailLength = bytes.limit() - removedEnd();
+                byte[] edited = new byte[offset + inserted.length + tailLength];
+                bytes.get(0, edited, 0, offset);
+                System.arraycopy(inserted, 0, edited, offset, inserted.length);
+                bytes.get(removedEnd(), edited, offset + inserted.length, tailLength);
+                yield SourceText.utf8(ByteBuffer.wrap(edited));
+            }
+            case SourceText.Streamed ignored -> throw new IllegalArgumentException("Streamed sources can't be edited");
+        };
+    }
+}
@@ -0,0 +1,168 @@
+package org.example.token;
+
+import org.example.CompilerCtx;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A whole file's worth of tokens, packed into parallel primitive arrays rather than one {@link Token} per lexeme.
+ * Consumed by the parser through a {@link Cursor}.
+ */
+public final class TokenBuffer {
+    private static final TokenType[] TYPES = TokenType.values();
+
+    private final CompilerCtx.FileInfo file;
+    private byte[] types;
+    private int[] starts;
+    private int[] ends;
+    private int size = 0;
+
+    public TokenBuffer(CompilerCtx.FileInfo file, int initialCapacity) {
+        initialCapacity = Math.max(initialCapacity, 16);
+        this.file = file;
+        this.types = new byte[initialCapacity];
+        this.starts = new int[initialCapacity];
+        this.ends = new int[initialCapacity];
+    }
+
+    public CompilerCtx.FileInfo getFile() {
+        return file;
+    }
+
+    public void add(TokenType type, int startOffset, int endOffset) {
+        if (size == types.length) {
+            int newCapacity = size * 2;
+            types = Arrays.copyOf(types, newCapacity);
+            starts = Arrays.copyOf(starts, newCapacity);
+            ends = Arrays.copyOf(ends, newCapacity);
+        }
+        types[size] = (byte) type.ordinal();
+        starts[size] = startOffset;
+        ends[size] = endOffset;
+        size++;
+    }
+
+    /** Joins buffers of consecutive tokens from the same file into one. */
+    public static TokenBuffer concat(CompilerCtx.FileInfo file, List<TokenBuffer> parts) {
+        int total = 0;
+        for (TokenBuffer part : parts) {
+            if (part.file.uid() != file.uid()) {
+                throw new IllegalArgumentException("Can't combine tokens from different files");
+            }
+            total += part.size;
+        }
+        var result = new TokenBuffer(file, total);
+        for (TokenBuffer part : parts) {
+            System.arraycopy(part.types, 0, result.types, result.size, part.size);
+            System.arraycopy(part.starts, 0, result.starts, result.size, part.size);
+            System.arraycopy(part.ends, 0, result.ends, result.size, part.size);
+            result.size += part.size;
+        }
+        return result;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /** Returns the type of the token at the given index, or EOF past the end of the buffer. */
+    @NotNull
+    public TokenType type(int index) {
+        return index < size ? TYPES[types[index]] : TokenType.EOF;
+    }
+
+    public int startOffset(int index) {
+        return starts[index];
+    }
+
+    public int endOffset(int index) {
+        return ends[index];
+    }
+
+    @NotNull
+    public Token get(int index) {
+        if (index >= size) {
+            return Token.EOF;
+        }
+        return new Token(TYPES[types[index]], file.uid(), starts[index], ends[index]);
+    }
+
+    public Cursor cursor() {
+        return new Cursor(0, size);
+    }
+
+    /** A cursor over tokens [from, to), which sees EOF at {@code to}. */
+    public Cursor cursor(int from, int to) {
+        if (from < 0 || from > to || to > size) {
+            throw new IndexOutOfBoundsException("[" + from + ", " + to + ") is not within the " + size + " tokens");
+        }
+        return new Cursor(from, to);
+    }
+
+    /**
+     * Index-based view over the buffer. Peeking and matching read straight out of the arrays, a {@link Token} is
+     * only created when the parser actually takes one with {@link #next()}.
+     */
+    public final class Cursor implements TokenStream {
+        private int index;
+        private final int end;
+
+        private Cursor(int start, int end) {
+            this.index = start;
+            this.end = end;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        @Override
+        public CompilerCtx.FileInfo getFile() {
+            return file;
+        }
+
+        @Override
+        @NotNull
+        public TokenType peek() {
+            return index < end ? TYPES[types[index]] : TokenType.EOF;
+        }
+
+        @Override
+        @NotNull
+        public Token peekToken() {
+            return index < end ? get(index) : Token.EOF;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return index < end;
+        }
+
+        @Override
+        @NotNull
+        public Token next() {
+            Token token = peekToken();
+            if (index < end) {
+                index++;
+            }
+            return token;
+        }
+
+        @Override
+        public boolean matchConsume(TokenType type) {
+            if (peek() == type) {
+                index++;
+                return true;
+            } else {
+                return false;
+            }
+        }
+
+        @Override
+        public String getSourceOf(Token token) {
+            return file.text().slice(token.startOffset(), token.endOffset());
+        }
+    }
+}
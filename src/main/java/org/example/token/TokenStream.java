@@ -0,0 +1,27 @@
+package org.example.token;
+
+import org.example.CompilerCtx;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A sequence of tokens that the parser consumes from, either lexed on demand by the {@link Tokenizer} or read out of
+ * a pre-lexed {@link TokenBuffer}.
+ */
+public interface TokenStream {
+    CompilerCtx.FileInfo getFile();
+
+    @NotNull
+    TokenType peek();
+
+    @NotNull
+    Token peekToken();
+
+    boolean hasNext();
+
+    @NotNull
+    Token next();
+
+    boolean matchConsume(TokenType type);
+
+    String getSourceOf(Token token);
+}
@@ -43,6 +43,7 @@ public enum TokenType {
     K_TRUE("true"),
     K_FALSE("false"),
     K_RETURN("return"),
+    K_IMPORT("import"),
     ;
 
     public final String repr;
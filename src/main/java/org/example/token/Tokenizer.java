@@ -1,13 +1,14 @@
 package org.example.token;
 
+import org.example.CompileErrors;
 import org.example.CompilerCtx;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.ArrayList;
 
-public class Tokenizer {
-    private final String source;
+public class Tokenizer implements TokenStream {
+    private final SourceText source;
     private final CompilerCtx.FileInfo file;
     private final CompilerCtx ctx;
     private int position = 0;
@@ -15,22 +16,35 @@ public class Tokenizer {
 
     @Nullable
     private Token peeked = null;
+    @Nullable
+    private final VectorizedScanner vectorizedScanner;
 
     public Tokenizer(CompilerCtx ctx, CompilerCtx.FileInfo file) {
-        this.source = file.contents();
+        this(ctx, file, 0);
+    }
+
+    /** Starts tokenizing part way through the file. The offset must be on a token boundary. */
+    public Tokenizer(CompilerCtx ctx, CompilerCtx.FileInfo file, int startOffset) {
+        this.source = file.text();
         this.file = file;
         this.ctx = ctx;
+        this.vectorizedScanner = ctx.vectorizedLexing ? VectorizedScanner.create(source) : null;
+        this.position = startOffset;
+        this.token_start = startOffset;
     }
 
+    @Override
     public CompilerCtx.FileInfo getFile() {
         return file;
     }
 
+    @Override
     @NotNull
     public TokenType peek() {
         return peekToken().type();
     }
 
+    @Override
     @NotNull
     public Token peekToken() {
         if (peeked != null) {
@@ -41,10 +55,12 @@ public class Tokenizer {
         return peeked;
     }
 
+    @Override
     public boolean hasNext() {
         return peek() != TokenType.EOF;
     }
 
+    @Override
     @NotNull
     public Token next() {
         Token result = peekToken();
@@ -52,6 +68,7 @@ public class Tokenizer {
         return result;
     }
 
+    @Override
     public boolean matchConsume(TokenType type) {
         if (peek() == type) {
             next();
@@ -63,152 +80,138 @@ public class Tokenizer {
 
     @NotNull
     private Token tokenizeNext() {
+        TokenType type = scanNext();
+        if (type == TokenType.EOF) {
+            return Token.EOF;
+        }
+        return new Token(type, file.uid(), token_start, position);
+    }
+
+    /** Scans the next token, leaving its source range in [token_start, position). */
+    @NotNull
+    private TokenType scanNext() {
         skipWhitespaceAndComments();
         if (!hasMoreChars()) {
-            return Token.EOF;
+            return TokenType.EOF;
         }
 
-        char cur = nextChar();
+        int cur = nextChar();
         switch (cur) {
             case '+' -> {
-                return makeToken(TokenType.PLUS);
+                return TokenType.PLUS;
             }
             case '-' -> {
                 if (matchesChar('>')) {
-                    return makeToken(TokenType.ARROW);
+                    return TokenType.ARROW;
                 } else {
-                    return makeToken(TokenType.MINUS);
+                    return TokenType.MINUS;
                 }
             }
             case '*' -> {
-                return makeToken(TokenType.STAR);
+                return TokenType.STAR;
             }
             case '/' -> {
                 // Comments are handled in skipWhitespaceAndComments().
-                return makeToken(TokenType.DIVIDE);
+                return TokenType.DIVIDE;
             }
             case ';' -> {
-                return makeToken(TokenType.SEMICOLON);
+                return TokenType.SEMICOLON;
             }
             case ':' -> {
-                return makeToken(TokenType.COLON);
+                return TokenType.COLON;
             }
             case ',' -> {
-                return makeToken(TokenType.COMMA);
+                return TokenType.COMMA;
             }
             case '(' -> {
-                return makeToken(TokenType.LPAREN);
+                return TokenType.LPAREN;
             }
             case ')' -> {
-                return makeToken(TokenType.RPAREN);
+                return TokenType.RPAREN;
             }
             case '{' -> {
-                return makeToken(TokenType.LBRACE);
+                return TokenType.LBRACE;
             }
             case '}' -> {
-                return makeToken(TokenType.RBRACE);
+                return TokenType.RBRACE;
             }
             case '&' -> {
                 if (matchesChar('&')) {
-                    return makeToken(TokenType.AND);
+                    return TokenType.AND;
                 } else {
-                    throw ctx.reportParseError(getCurrentSourceSpan(), "Unexpected character");
+                    throw ctx.reportParseError(file.uid(), token_start, position, CompileErrors.Message.UNEXPECTED_CHARACTER);
                 }
             }
             case '|' -> {
                 if (matchesChar('|')) {
-                    return makeToken(TokenType.OR);
+                    return TokenType.OR;
                 } else {
-                    throw ctx.reportParseError(getCurrentSourceSpan(), "Unexpected character");
+                    throw ctx.reportParseError(file.uid(), token_start, position, CompileErrors.Message.UNEXPECTED_CHARACTER);
                 }
             }
             case '=' -> {
                 if (matchesChar('=')) {
-                    return makeToken(TokenType.EQUALS);
+                    return TokenType.EQUALS;
                 } else {
-                    return makeToken(TokenType.ASSIGN);
+                    return TokenType.ASSIGN;
                 }
             }
             case '!' -> {
                 if (matchesChar('=')) {
-                    return makeToken(TokenType.NOT_EQUALS);
+                    return TokenType.NOT_EQUALS;
                 } else {
-                    return makeToken(TokenType.NOT);
+                    return TokenType.NOT;
                 }
             }
             case '<' -> {
                 if (matchesChar('=')) {
-                    return makeToken(TokenType.LT_EQ);
+                    return TokenType.LT_EQ;
                 } else {
-                    return makeToken(TokenType.LT);
+                    return TokenType.LT;
                 }
             }
             case '>' -> {
                 if (matchesChar('=')) {
-                    return makeToken(TokenType.GT_EQ);
+                    return TokenType.GT_EQ;
                 } else {
-                    return makeToken(TokenType.GT);
+                    return TokenType.GT;
                 }
             }
             default -> {
-                if (Character.isJavaIdentifierStart(cur)) {
+                // Outside ASCII a character can span several code units, so rewind and decode the whole thing.
+                position = token_start;
+                int codePoint = nextCodePoint();
+                if (CharClasses.isIdentifierStart(codePoint)) {
                     var sawQuestion = false;
                     while (hasMoreChars()) {
-                        var ch = peekChar();
-                        if (Character.isJavaIdentifierPart(ch) || ch == '-' || ch == '?') {
+                        var ch = peekCodePoint();
+                        if (CharClasses.isIdentifierPart(ch)) {
                             if (sawQuestion) {
                                 // The identifier should have ended at the '?'.
-                                throw ctx.reportParseError(getCurrentSourceSpan(), "Identifiers must end after '?'");
+                                throw ctx.reportParseError(file.uid(), token_start, position, CompileErrors.Message.IDENTIFIER_AFTER_QUESTION);
                             }
                             if (ch == '?') {
                                 sawQuestion = true;
                             }
-                            nextChar();
+                            nextCodePoint();
                         } else {
                             break;
                         }
                     }
-                    return makeToken(getKeywordType(getCurrentSpan()));
+                    return Keywords.lookup(source, token_start, position);
                 }
-                if (Character.isDigit(cur)) {
-                    while (hasMoreChars() && Character.isDigit(peekChar())) {
-                        nextChar();
+                if (CharClasses.isDigit(codePoint)) {
+                    while (hasMoreChars() && CharClasses.isDigit(peekCodePoint())) {
+                        nextCodePoint();
                     }
-                    return makeToken(TokenType.NUMBER);
+                    return TokenType.NUMBER;
                 }
 
-                throw ctx.reportParseError(getCurrentSourceSpan(), "Unexpected character");
+                throw ctx.reportParseError(file.uid(), token_start, position, CompileErrors.Message.UNEXPECTED_CHARACTER);
             }
         }
     }
 
-    private SourceLoc getSourceLocation(int offset) {
-        int line = 1;
-        int column = 1;
-        for (int i = 0; i < offset; i++) {
-            if (source.charAt(i) == '\n') {
-                line += 1;
-                column = 1;
-            } else {
-                column += 1;
-            }
-        }
-        return new SourceLoc(offset, line, column);
-    }
-
-    private SourceSpan getCurrentSourceSpan() {
-        return getSourceSpan(token_start, position);
-    }
-
-    @NotNull
-    private SourceSpan getSourceSpan(int start, int end) {
-        return new SourceSpan(
-                getSourceLocation(start),
-                getSourceLocation(end - 1),
-                source.substring(start, end)
-        );
-    }
-
     private boolean matchesChar(char c) {
         if (!hasMoreChars()) {
             return false;
@@ -221,47 +224,53 @@ public class Tokenizer {
     }
 
     private boolean hasMoreChars() {
-        return position < source.length();
+        return source.hasUnitAt(position);
     }
 
-    private char peekChar() {
-        return source.charAt(position);
+    private int peekChar() {
+        return source.unitAt(position);
     }
 
-    private char nextChar() {
-        return source.charAt(position++);
+    private int nextChar() {
+        return source.unitAt(position++);
     }
 
-    private TokenType getKeywordType(String span) {
-        return switch (span) {
-            case "func" -> TokenType.K_FUNC;
-            case "while" -> TokenType.K_WHILE;
-            case "if" -> TokenType.K_IF;
-            case "else" -> TokenType.K_ELSE;
-            case "let" -> TokenType.K_LET;
-            case "true" -> TokenType.K_TRUE;
-            case "false" -> TokenType.K_FALSE;
-            case "return" -> TokenType.K_RETURN;
-            default -> TokenType.IDENTIFIER;
-        };
+    private int peekCodePoint() {
+        int unit = source.unitAt(position);
+        return unit < 0x80 ? unit : source.codePointAt(position);
     }
 
-    private Token makeToken(TokenType type) {
-        var token = new Token(type, file.uid(), token_start, position);
-        token_start = position;
-        return token;
+    private int nextCodePoint() {
+        int unit = source.unitAt(position);
+        if (unit < 0x80) {
+            position++;
+            return unit;
+        }
+        int codePoint = source.codePointAt(position);
+        position += source.codePointLength(position);
+        return codePoint;
     }
 
     private void skipWhitespaceAndComments() {
         while (hasMoreChars()) {
-            if (Character.isWhitespace(peekChar())) {
-                nextChar();
-            } else if (position + 2 <= source.length() && source.charAt(position) == '/' && source.charAt(position + 1) == '/') {
-                position += 2;
-                while (position < source.length() && source.charAt(position) != '\n') {
-                    position += 1;
+            // The parser is done with everything before here, which lets a streamed source reuse its buffer.
+            source.discardBefore(position);
+            if (CharClasses.isWhitespace(peekCodePoint())) {
+                nextCodePoint();
+                if (vectorizedScanner != null) {
+                    position = vectorizedScanner.skipWhitespace(position);
                 }
+            } else if (source.hasUnitAt(position + 1) && source.unitAt(position) == '/' && source.unitAt(position + 1) == '/') {
+                position += 2;
                 // Skip to the end of the line.
+                if (vectorizedScanner != null) {
+                    position = vectorizedScanner.findNewline(position);
+                } else {
+                    while (source.hasUnitAt(position) && source.unitAt(position) != '\n') {
+                        position += 1;
+                        source.discardBefore(position);
+                    }
+                }
             } else {
                 break;
             }
@@ -269,12 +278,9 @@ public class Tokenizer {
         token_start = position;
     }
 
-    private String getCurrentSpan() {
-        return source.substring(token_start, position);
-    }
-
+    @Override
     public String getSourceOf(Token token) {
-        return source.substring(token.startOffset(), token.endOffset());
+        return source.slice(token.startOffset(), token.endOffset());
     }
 
     @NotNull
@@ -285,4 +291,28 @@ public class Tokenizer {
         }
         return tokens;
     }
+
+    /**
+     * Tokenizes the rest of the file into a packed {@link TokenBuffer}, without allocating a {@link Token} per lexeme.
+     */
+    @NotNull
+    public TokenBuffer tokenizeToBuffer() {
+        return tokenizeToBuffer(Integer.MAX_VALUE);
+    }
+
+    /** Like {@link #tokenizeToBuffer()}, but stops at the first token that starts at or after endOffset. */
+    @NotNull
+    public TokenBuffer tokenizeToBuffer(int endOffset) {
+        if (peeked != null) {
+            throw new IllegalStateException("Can't buffer a tokenizer that has already been peeked");
+        }
+        var buffer = new TokenBuffer(file, (Math.min(endOffset, source.length()) - position) / 4);
+        while (true) {
+            TokenType type = scanNext();
+            if (type == TokenType.EOF || token_start >= endOffset) {
+                return buffer;
+            }
+            buffer.add(type, token_start, position);
+        }
+    }
 }
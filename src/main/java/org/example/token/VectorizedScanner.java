@@ -0,0 +1,94 @@
+package org.example.token;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorSpecies;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Skips whitespace and comment bodies a whole vector (16-32 bytes, depending on the CPU) at a time, using the
+ * incubating Vector API. Only used for UTF-8 sources, and only when {@link org.example.CompilerCtx#vectorizedLexing}
+ * is enabled; requires {@code --add-modules jdk.incubator.vector}.
+ * <p>
+ * This only speeds up the common cases (space, tab, CR and LF). It stops at anything else, including rarer whitespace,
+ * and leaves it to the tokenizer's scalar loop, so both lexers always agree.
+ */
+final class VectorizedScanner {
+    private static final VectorSpecies<Byte> SPECIES = ByteVector.SPECIES_PREFERRED;
+
+    private final ByteBuffer bytes;
+    @Nullable
+    private final byte[] array;
+    private final int arrayOffset;
+    /** Direct (e.g. memory-mapped) buffers are loaded from in place, through a segment over them. */
+    @Nullable
+    private final MemorySegment segment;
+    private final int limit;
+
+    private VectorizedScanner(ByteBuffer bytes) {
+        this.bytes = bytes;
+        this.array = bytes.hasArray() ? bytes.array() : null;
+        this.arrayOffset = bytes.hasArray() ? bytes.arrayOffset() : 0;
+        // A segment starts at the buffer's position, but positions here are absolute.
+        this.segment = bytes.hasArray() ? null : MemorySegment.ofBuffer(bytes.duplicate().position(0));
+        this.limit = bytes.limit();
+    }
+
+    @Nullable
+    static VectorizedScanner create(SourceText source) {
+        if (source instanceof SourceText.Utf8 utf8) {
+            return new VectorizedScanner(utf8.getBytes());
+        }
+        return null;
+    }
+
+    private ByteVector load(int position) {
+        if (array != null) {
+            return ByteVector.fromArray(SPECIES, array, arrayOffset + position);
+        }
+        return ByteVector.fromMemorySegment(SPECIES, segment, position, ByteOrder.nativeOrder());
+    }
+
+    /** Returns the position of the first byte at or after the given position that isn't a space, tab, CR or LF. */
+    int skipWhitespace(int position) {
+        while (position + SPECIES.length() <= limit) {
+            ByteVector chunk = load(position);
+            VectorMask<Byte> whitespace = chunk.eq((byte) ' ')
+                    .or(chunk.eq((byte) '\n'))
+                    .or(chunk.eq((byte) '\t'))
+                    .or(chunk.eq((byte) '\r'));
+            int firstOther = whitespace.not().firstTrue();
+            if (firstOther < SPECIES.length()) {
+                return position + firstOther;
+            }
+            position += SPECIES.length();
+        }
+        while (position < limit && isCommonWhitespace(bytes.get(position))) {
+            position++;
+        }
+        return position;
+    }
+
+    /** Returns the position of the next '\n' at or after the given position, or the end of the file. */
+    int findNewline(int position) {
+        while (position + SPECIES.length() <= limit) {
+            int newline = load(position).eq((byte) '\n').firstTrue();
+            if (newline < SPECIES.length()) {
+                return position + newline;
+            }
+            position += SPECIES.length();
+        }
+        while (position < limit && bytes.get(position) != '\n') {
+            position++;
+        }
+        return position;
+    }
+
+    private static boolean isCommonWhitespace(byte b) {
+        return b == ' ' || b == '\n' || b == '\t' || b == '\r';
+    }
+}
@@ -0,0 +1,59 @@
+package org.example.typecheck;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * The literal values in a program, parsed once by the {@link TypeChecker} and shared by every backend.
+ * <p>
+ * Each constant gets an index, equal values share one. The interpreter reads the boxed value so it doesn't allocate per
+ * evaluation, native backends read the raw value to use as an immediate. Only i32 constants exist so far, the type is
+ * stored alongside so more can be added without changing the indices.
+ * <p>
+ * Constants are only added during type checking, and only read once it's finished.
+ */
+public final class ConstantPool {
+    private final List<TypeInfo> types = new ArrayList<>();
+    private final HashMap<Integer, Integer> i32Indices = new HashMap<>();
+    private int[] i32Values = new int[16];
+    private Object[] boxedValues = new Object[16];
+
+    public synchronized int addI32(int value) {
+        Integer existing = i32Indices.get(value);
+        if (existing != null) {
+            return existing;
+        }
+        int index = types.size();
+        if (index == i32Values.length) {
+            i32Values = Arrays.copyOf(i32Values, index * 2);
+            boxedValues = Arrays.copyOf(boxedValues, index * 2);
+        }
+        types.add(TypeInfo.I32);
+        i32Values[index] = value;
+        boxedValues[index] = value;
+        i32Indices.put(value, index);
+        return index;
+    }
+
+    public int size() {
+        return types.size();
+    }
+
+    public TypeInfo type(int index) {
+        return types.get(index);
+    }
+
+    public int i32(int index) {
+        if (types.get(index) != TypeInfo.I32) {
+            throw new IllegalStateException("Constant " + index + " is a " + types.get(index) + ", not an i32");
+        }
+        return i32Values[index];
+    }
+
+    /** The value as the interpreter represents it. */
+    public Object value(int index) {
+        return boxedValues[index];
+    }
+}
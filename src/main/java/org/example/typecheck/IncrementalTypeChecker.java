@@ -0,0 +1,172 @@
+package org.example.typecheck;
+
+import org.example.CompilerCtx;
+import org.example.parse.Expr;
+import org.example.parse.ParsedFile;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Type checks successive versions of a file, only checking a function body again if it or something it uses changed.
+ * <p>
+ * Meant to follow {@link org.example.parse.IncrementalParser}, which keeps the items an edit didn't touch as the same
+ * objects. Function bodies are checked against the frozen global scope, as in {@link ParallelTypeChecker}, recording
+ * what each top-level name a body used resolved to. In the next version a body is checked again if it's a new item,
+ * or if one of those names now resolves to something else. Top-level symbols declared the same as before are reused,
+ * so editing a function's body doesn't invalidate its callers, but changing its signature does. The other bodies keep
+ * what was resolved in them last time.
+ * <p>
+ * Function signatures and top-level variables are cheap, and are checked every time. If a check fails the next one
+ * starts from scratch. Hash-consed trees can't be checked like this, as a shared node can be in more than one body.
+ * <p>
+ * The Symbols of each result look straight at what's kept between checks, so they're out of date after the next one.
+ */
+public class IncrementalTypeChecker {
+    private final CompilerCtx ctx;
+    // Everything resolved in the last version checked. Function bodies are checked on it directly, and the top level
+    // on a table that shares what it resolves for each node. The result's Symbols share it rather than copy it.
+    private SymbolTable bodies;
+    private IdentityHashMap<Expr.Function, CheckedFunction> functions = new IdentityHashMap<>();
+    private List<Expr.Item> topLevelVariables = List.of();
+    private List<Symbol> topLevelSymbols = List.of();
+
+    public record Result(
+            SymbolTable.FileScope scope,
+            // How many function bodies had to be checked again, for checking we do less work than a full check.
+            int recheckedCount
+    ) {}
+
+    /** A checked function body: the function's symbol, and the symbol each top-level name it used resolved to. */
+    private record CheckedFunction(Symbol.Function symbol, int[] nameIds, Symbol[] resolved) {
+        static CheckedFunction of(Symbol.Function symbol, Map<Integer, Symbol> globalLookups) {
+            int[] nameIds = new int[globalLookups.size()];
+            Symbol[] resolved = new Symbol[globalLookups.size()];
+            int i = 0;
+            for (Map.Entry<Integer, Symbol> lookup : globalLookups.entrySet()) {
+                nameIds[i] = lookup.getKey();
+                resolved[i] = lookup.getValue();
+                i++;
+            }
+            return new CheckedFunction(symbol, nameIds, resolved);
+        }
+
+        boolean isUpToDate(Symbol.Function symbol, SymbolTable.Globals globals, int globalBindingCount) {
+            if (symbol != this.symbol) {
+                return false;
+            }
+            for (int i = 0; i < nameIds.length; i++) {
+                if (globals.lookupValue(nameIds[i], globalBindingCount) != resolved[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    public IncrementalTypeChecker(CompilerCtx ctx) {
+        if (ctx.hashConsing != null) {
+            throw new IllegalStateException("Hash-consed trees can't be checked incrementally");
+        }
+        this.ctx = ctx;
+        this.bodies = newBodies();
+    }
+
+    public Result check(ParsedFile file) {
+        if (!file.imports().isEmpty()) {
+            throw new IllegalArgumentException("A file with imports has to be checked along with them, see ModuleCompiler");
+        }
+        try {
+            return checkChanges(file);
+        } catch (RuntimeException e) {
+            // Bodies may have been forgotten or half checked, so they can't be trusted next time.
+            bodies = newBodies();
+            functions = new IdentityHashMap<>();
+            topLevelVariables = List.of();
+            topLevelSymbols = List.of();
+            throw e;
+        }
+    }
+
+    private Result checkChanges(ParsedFile file) {
+        // What the top level resolves goes straight into the bodies' tables, so the old variables go first, and
+        // everything's sized for the file's nodes up front. So do the functions that were removed from the file or
+        // replaced by a reparsed item: their node ids may have been given to the new items.
+        for (Expr.Item variable : topLevelVariables) {
+            bodies.forget(variable);
+        }
+        var items = Collections.newSetFromMap(new IdentityHashMap<Expr.Item, Boolean>());
+        items.addAll(file.items());
+        for (var it = functions.keySet().iterator(); it.hasNext(); ) {
+            Expr.Function function = it.next();
+            if (!items.contains(function)) {
+                bodies.forget(function);
+                it.remove();
+            }
+        }
+        bodies.ensureNodeCapacity(ctx.nodeIdCount(file.file().uid()));
+        var table = bodies.sharingResolvedNodes();
+        table.reuseSymbols(topLevelSymbols);
+        var checker = new TypeChecker(ctx, table);
+        table.pushGlobalScope();
+        SymbolTable.FileScope scope;
+        int rechecked = 0;
+        try {
+            checker.resolveFunctionSymbols(file.items());
+            var itemFunctions = new ArrayList<Expr.Function>();
+            var variables = new ArrayList<Expr.Item>();
+            int[] globalBindingCounts = new int[file.items().size()];
+            for (Expr.Item item : file.items()) {
+                if (item instanceof Expr.Function function) {
+                    globalBindingCounts[itemFunctions.size()] = table.globalBindingCount();
+                    itemFunctions.add(function);
+                } else {
+                    checker.resolveExpr(item);
+                    variables.add(item);
+                }
+            }
+            SymbolTable.Globals globals = table.freezeGlobals();
+
+            // Forget everything that's out of date before checking anything, a reused symbol can move between bodies.
+            var checked = new IdentityHashMap<Expr.Function, CheckedFunction>(itemFunctions.size());
+            var outOfDate = new ArrayList<Integer>();
+            for (int i = 0; i < itemFunctions.size(); i++) {
+                Expr.Function function = itemFunctions.get(i);
+                CheckedFunction previous = functions.remove(function);
+                if (previous != null && previous.isUpToDate(table.lookupFunction(function), globals, globalBindingCounts[i])) {
+                    checked.put(function, previous);
+                } else {
+                    if (previous != null) {
+                        bodies.forget(function);
+                    }
+                    outOfDate.add(i);
+                }
+            }
+            functions = checked;
+
+            var bodyChecker = new TypeChecker(ctx, bodies);
+            for (int i : outOfDate) {
+                Expr.Function function = itemFunctions.get(i);
+                Symbol.Function symbol = table.lookupFunction(function);
+                bodies.enterTopLevelFunction(function, symbol, globals, globalBindingCounts[i]);
+                bodyChecker.resolveExpr(function);
+                checked.put(function, CheckedFunction.of(symbol, bodies.globalLookups()));
+                rechecked++;
+            }
+            topLevelVariables = variables;
+            topLevelSymbols = globals.values();
+        } finally {
+            scope = table.popGlobalScope(bodies);
+        }
+        return new Result(scope, rechecked);
+    }
+
+    private SymbolTable newBodies() {
+        var table = new SymbolTable(ctx.names);
+        table.trackGlobalLookups();
+        return table;
+    }
+}
@@ -0,0 +1,164 @@
+package org.example.typecheck;
+
+import org.example.parse.Expr;
+import org.example.parse.SourceRange;
+import org.example.token.NameTable;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * What a module exports: its top-level functions and globals, in declaration order. That's all a module importing it
+ * needs to be type checked, so an interface written out once its module has been checked lets the modules that import
+ * it be checked later without parsing or checking it again.
+ * <p>
+ * Functions loaded from a file are equal to the module's own, but not the same objects, so a program checked against
+ * loaded interfaces can't be run by the {@link org.example.interpret.TreeInterpreter}, which finds each function's
+ * module by identity.
+ * <p>
+ * The file is a header, then each symbol as its name and types, with each type one byte. A file that's corrupt or of
+ * another version fails to load rather than being guessed at.
+ */
+public record ModuleInterface(
+        List<Symbol.Function> functions,
+        List<Symbol.Global> globals
+) {
+    private static final int MAGIC = 0x4d4f4449; // "MODI"
+    /** Bump whenever the symbols or this format change. */
+    private static final int FORMAT_VERSION = 1;
+
+    private static final TypeInfo[] TYPES = { TypeInfo.VOID, TypeInfo.I32, TypeInfo.F32, TypeInfo.BOOL };
+
+    public ModuleInterface {
+        functions = List.copyOf(functions);
+        globals = List.copyOf(globals);
+    }
+
+    /** The interface of a checked module. The file's imports aren't passed on, so they aren't part of it. */
+    public static ModuleInterface of(SymbolTable.FileScope scope) {
+        var functions = new ArrayList<Symbol.Function>();
+        var globals = new ArrayList<Symbol.Global>();
+        for (Symbol symbol : scope.valuesNamespace().values()) {
+            switch (symbol) {
+                case Symbol.Function function -> functions.add(function);
+                case Symbol.Global global -> globals.add(global);
+                default -> throw new IllegalStateException("Not a top-level symbol: " + symbol);
+            }
+        }
+        return new ModuleInterface(functions, globals);
+    }
+
+    public void write(Path path) {
+        var bytes = new ByteArrayOutputStream();
+        try (var out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(functions.size());
+            for (Symbol.Function function : functions) {
+                out.writeUTF(function.name());
+                out.writeByte(typeIndex(function.returnType()));
+                out.writeInt(function.params().size());
+                for (Symbol.FunctionParam param : function.params()) {
+                    out.writeUTF(param.name().text());
+                    out.writeByte(typeIndex(param.type()));
+                }
+            }
+            out.writeInt(globals.size());
+            for (Symbol.Global global : globals) {
+                out.writeUTF(global.name());
+                out.writeByte(typeIndex(global.valueType()));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        try {
+            Path directory = path.toAbsolutePath().getParent();
+            Files.createDirectories(directory);
+            // Write then move, so a module being checked against it never sees half a file.
+            Path temp = Files.createTempFile(directory, "interface", ".tmp");
+            Files.write(temp, bytes.toByteArray());
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Loads an interface written by {@link #write}, or returns null if there's no file. Throws {@link Unreadable} if
+     * the file is corrupt or from another version.
+     */
+    @Nullable
+    public static ModuleInterface read(NameTable names, Path path) {
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(path);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        try (var in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                throw new Unreadable("Not a module interface of the current version: " + path, null);
+            }
+            int numFunctions = in.readInt();
+            var functions = new ArrayList<Symbol.Function>(numFunctions);
+            for (int i = 0; i < numFunctions; i++) {
+                String name = in.readUTF();
+                TypeInfo returnType = readType(in);
+                int numParams = in.readInt();
+                var params = new ArrayList<Symbol.FunctionParam>(numParams);
+                for (int j = 0; j < numParams; j++) {
+                    String paramName = in.readUTF();
+                    params.add(new Symbol.FunctionParam(new Expr.Identifier(paramName, names.intern(paramName), SourceRange.NONE), readType(in)));
+                }
+                functions.add(new Symbol.Function(name, params, returnType));
+            }
+            int numGlobals = in.readInt();
+            var globals = new ArrayList<Symbol.Global>(numGlobals);
+            for (int i = 0; i < numGlobals; i++) {
+                globals.add(new Symbol.Global(in.readUTF(), readType(in)));
+            }
+            if (in.available() > 0) {
+                throw new Unreadable("Trailing bytes after the last symbol: " + path, null);
+            }
+            return new ModuleInterface(functions, globals);
+        } catch (IOException e) {
+            // Only a truncated file, as it's read from memory.
+            throw new Unreadable("Corrupt module interface: " + path, e);
+        }
+    }
+
+    private static int typeIndex(TypeInfo type) {
+        return switch (type) {
+            case TypeInfo.Void ignored -> 0;
+            case TypeInfo.Primitive primitive -> 1 + primitive.ordinal();
+        };
+    }
+
+    private static TypeInfo readType(DataInputStream in) throws IOException {
+        int index = in.readUnsignedByte();
+        if (index >= TYPES.length) {
+            throw new Unreadable("Unknown type " + index + " in module interface", null);
+        }
+        return TYPES[index];
+    }
+
+    /** An interface file that's there but can't be used, so its module has to be compiled again. */
+    public static class Unreadable extends IllegalStateException {
+        Unreadable(String message, @Nullable Throwable cause) {
+            super(message, cause);
+        }
+    }
+}
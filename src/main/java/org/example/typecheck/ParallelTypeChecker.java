@@ -0,0 +1,125 @@
+package org.example.typecheck;
+
+import org.example.CompilerCtx;
+import org.example.parse.Expr;
+import org.example.parse.ParsedFile;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Type checks the function bodies of a file on several threads.
+ * <p>
+ * Function signatures and top-level variables are checked first, in order, on the context's table. Bodies can refer
+ * to them, but nothing at the top level depends on a body. The global scope is then frozen, and runs of function
+ * bodies are checked against it, each with a table of its own. What's resolved for each node is written straight into
+ * the context's table, which is sized for the whole file first, and the function definitions are merged back in item
+ * order. A body only sees the top-level variables declared before it, as it would in sequence.
+ * <p>
+ * A failing run doesn't stop the others, so errors can be reported from several of them. The first failure in item
+ * order is the one thrown.
+ */
+public class ParallelTypeChecker {
+    /** Files with fewer functions than this aren't worth splitting. */
+    public static final int MIN_CHUNK_FUNCTIONS = 64;
+
+    private final CompilerCtx ctx;
+    private final ForkJoinPool pool;
+
+    public ParallelTypeChecker(CompilerCtx ctx) {
+        this(ctx, ForkJoinPool.commonPool());
+    }
+
+    public ParallelTypeChecker(CompilerCtx ctx, ForkJoinPool pool) {
+        this.ctx = ctx;
+        this.pool = pool;
+    }
+
+    /**
+     * A run of checked function bodies. A failure is passed back rather than thrown, as join() would throw a copy
+     * of it wrapping the original.
+     */
+    private record Chunk(SymbolTable bodies, @Nullable RuntimeException failure) {}
+
+    public SymbolTable.FileScope checkFile(ParsedFile file) {
+        return checkFile(file, MIN_CHUNK_FUNCTIONS);
+    }
+
+    public SymbolTable.FileScope checkFile(ParsedFile file, int minChunkFunctions) {
+        if (!file.imports().isEmpty()) {
+            throw new IllegalArgumentException("A file with imports has to be checked along with them, see ModuleCompiler");
+        }
+        var functions = new ArrayList<Expr.Function>();
+        for (Expr.Item item : file.items()) {
+            if (item instanceof Expr.Function function) {
+                functions.add(function);
+            }
+        }
+        if (functions.size() < minChunkFunctions * 2 || pool.getParallelism() < 2) {
+            return new TypeChecker(ctx).checkFile(file);
+        }
+
+        SymbolTable table = ctx.symbols;
+        // Sized for the whole file, so the workers can write what they resolve for each node straight into it.
+        table.ensureNodeCapacity(ctx.nodeIdCount(file.file().uid()));
+        var checker = new TypeChecker(ctx, table);
+        table.pushGlobalScope();
+        SymbolTable.FileScope scope;
+        try {
+            checker.resolveFunctionSymbols(file.items());
+            // Looked up here, as the workers mustn't touch the table while it's being merged into.
+            var symbols = new Symbol.Function[functions.size()];
+            int[] globalBindingCounts = new int[functions.size()];
+            int numFunctions = 0;
+            for (Expr.Item item : file.items()) {
+                if (item instanceof Expr.Function function) {
+                    symbols[numFunctions] = table.lookupFunction(function);
+                    globalBindingCounts[numFunctions] = table.globalBindingCount();
+                    numFunctions++;
+                } else {
+                    checker.resolveExpr(item);
+                }
+            }
+            SymbolTable.Globals globals = table.freezeGlobals();
+
+            int numChunks = Math.max(1, Math.min(pool.getParallelism() * 4, numFunctions / minChunkFunctions));
+            List<ForkJoinTask<Chunk>> chunks = new ArrayList<>(numChunks);
+            for (int i = 0; i < numChunks; i++) {
+                int start = (int) ((long) numFunctions * i / numChunks);
+                int end = (int) ((long) numFunctions * (i + 1) / numChunks);
+                chunks.add(pool.submit(() -> {
+                    SymbolTable bodies = table.sharingResolvedNodes();
+                    var bodyChecker = new TypeChecker(ctx, bodies);
+                    try {
+                        for (int j = start; j < end; j++) {
+                            bodies.enterTopLevelFunction(functions.get(j), symbols[j], globals, globalBindingCounts[j]);
+                            bodyChecker.resolveExpr(functions.get(j));
+                        }
+                    } catch (RuntimeException e) {
+                        return new Chunk(bodies, e);
+                    }
+                    return new Chunk(bodies, null);
+                }));
+            }
+
+            RuntimeException failure = null;
+            for (ForkJoinTask<Chunk> task : chunks) {
+                Chunk chunk = task.join();
+                if (chunk.failure() == null) {
+                    table.mergeFrom(chunk.bodies());
+                } else if (failure == null) {
+                    failure = chunk.failure();
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        } finally {
+            scope = table.popGlobalScope();
+        }
+        return scope;
+    }
+}
@@ -0,0 +1,97 @@
+package org.example.typecheck;
+
+import org.example.parse.Expr;
+import org.example.parse.SourceRange;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+
+/**
+ * What the type checker resolved for each node of a file, in arrays indexed by node id (see
+ * {@link SourceRange#nodeId()}), so a lookup is one array load rather than hashing the node.
+ * <p>
+ * The symbol is the variable an identifier refers to or the function a call calls. No node is both, so they share an
+ * array. Constant pool indices are kept plus one, so that 0 is unresolved.
+ * <p>
+ * Grows as nodes are added, which isn't safe while other threads are writing to it, so a file checked on several
+ * threads has to be sized for all its nodes first with {@link #ensureCapacity}. Past that, each thread only writes the
+ * slots of the nodes it's checking.
+ */
+final class ResolvedNodes {
+    private TypeInfo[] types;
+    private Symbol[] symbols;
+    private int[] constants;
+
+    ResolvedNodes(int nodeCount) {
+        types = new TypeInfo[nodeCount];
+        symbols = new Symbol[nodeCount];
+        constants = new int[nodeCount];
+    }
+
+    void ensureCapacity(int nodeCount) {
+        if (nodeCount > types.length) {
+            // At least doubled, as a file that's being edited can take a few more node ids each time.
+            int capacity = Math.max(types.length * 2, nodeCount);
+            types = Arrays.copyOf(types, capacity);
+            symbols = Arrays.copyOf(symbols, capacity);
+            constants = Arrays.copyOf(constants, capacity);
+        }
+    }
+
+    @Nullable
+    TypeInfo type(Expr expr) {
+        int id = nodeId(expr);
+        return id < types.length ? types[id] : null;
+    }
+
+    void setType(Expr expr, TypeInfo type) {
+        int id = slot(expr);
+        types[id] = type;
+    }
+
+    @Nullable
+    Symbol symbol(Expr expr) {
+        int id = nodeId(expr);
+        return id < symbols.length ? symbols[id] : null;
+    }
+
+    void setSymbol(Expr expr, Symbol symbol) {
+        int id = slot(expr);
+        symbols[id] = symbol;
+    }
+
+    /** The index into the ConstantPool of a literal's value, or -1 if it hasn't been resolved. */
+    int constant(Expr.Number number) {
+        int id = nodeId(number);
+        return id < constants.length ? constants[id] - 1 : -1;
+    }
+
+    void setConstant(Expr.Number number, int constantIndex) {
+        int id = slot(number);
+        constants[id] = constantIndex + 1;
+    }
+
+    void forget(Expr expr) {
+        int id = nodeId(expr);
+        if (id < types.length) {
+            types[id] = null;
+            symbols[id] = null;
+            constants[id] = 0;
+        }
+    }
+
+    /** The node's id, with room made for it. Has to be called before the array it's an index into is read. */
+    private int slot(Expr expr) {
+        int id = nodeId(expr);
+        ensureCapacity(id + 1);
+        return id;
+    }
+
+    private static int nodeId(Expr expr) {
+        int id = expr.range().nodeId();
+        if (id == SourceRange.NO_NODE) {
+            throw new IllegalStateException("Only parsed nodes can be type checked, " + expr + " has no node id");
+        }
+        return id;
+    }
+}
@@ -2,10 +2,15 @@ package org.example.typecheck;
 
 import org.example.parse.Expr;
 import org.example.parse.TypeExpr;
+import org.example.token.NameTable;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -13,50 +18,45 @@ import java.util.Map;
 
 public class SymbolTable {
 
-    private final List<Scope> scopes = new ArrayList<>();
-    private final IdentityHashMap<Expr, TypeInfo> resolvedExprTypes = new IdentityHashMap<>();
-    private final IdentityHashMap<Expr.Identifier, Symbol.Value> resolvedVarSymbols = new IdentityHashMap<>();
-    private final IdentityHashMap<Expr.Call, Symbol.Function> resolvedCallSites = new IdentityHashMap<>();
-    private final IdentityHashMap<TypeExpr, TypeInfo> resolvedTypeRefs = new IdentityHashMap<>();
-    private final IdentityHashMap<Expr.Function, Symbol.Function> functionDeclarations = new IdentityHashMap<>();
-    private final IdentityHashMap<Symbol.Function, FunctionScope> functionScopes = new IdentityHashMap<>();
-
-    public SymbolTable() {
-    }
-
-    public static class Scope {
-        final Map<String, TypeInfo> typesNamespace = new LinkedHashMap<>();
-        // Variables and functions exist in the same namespace
-        final Map<String, Symbol> valuesNamespace = new LinkedHashMap<>();
-        @Nullable
-        final SymbolTable.FunctionScope functionScope;
-
-        public Scope(@Nullable SymbolTable.FunctionScope function) {
-            this.functionScope = function;
-        }
-
-        @Override
-        public String toString() {
-            return "Scope{" +
-                    "currentFunction=" + functionScope +
-                    '}';
-        }
-
-        public static Scope createGlobal() {
-            Scope globalScope = new Scope(null);
-            globalScope.typesNamespace.put("i32", TypeInfo.I32);
-            globalScope.typesNamespace.put("f32", TypeInfo.F32);
-            globalScope.typesNamespace.put("bool", TypeInfo.BOOL);
-            globalScope.typesNamespace.put("void", TypeInfo.VOID);
-            return globalScope;
-        }
-
-        public FunctionScope expectFunction() {
-            if (functionScope != null) {
-                return functionScope;
-            }
-            throw new IllegalStateException("This scope does not belong to a function: " + this);
-        }
+    private final NameTable names;
+
+    // Name lookup is a flat binding stack rather than a map per scope. The innermost binding of each name is kept in
+    // an array indexed by name id, so a lookup is one read however deeply nested the code is. Binding a name logs
+    // what it shadowed, and popping a scope undoes the log back to where the scope started, so a block that declares
+    // nothing allocates nothing.
+    private Symbol[] valueBindings = new Symbol[64];
+    private TypeInfo[] typeBindings = new TypeInfo[64];
+    private int[] undoNameIds = new int[64];
+    private boolean[] undoIsType = new boolean[64];
+    private Object[] undoShadowed = new Object[64];
+    private int undoSize = 0;
+    // Per open scope: where its undo log starts, and the function it's in, if any.
+    private int[] scopeUndoStarts = new int[16];
+    private FunctionScope[] scopeFunctions = new FunctionScope[16];
+    private int depth = 0;
+    // Where the file's own top-level bindings start in the log, after the builtin types and anything imported.
+    private int firstOwnBinding = 0;
+    // The top-level names when checking function bodies apart from the table that holds them, see forFunctionBodies.
+    @Nullable
+    private Globals globals;
+    private int globalBindingCount;
+    // What each name the current function body found among the top-level names resolved to, if they're being tracked.
+    @Nullable
+    private LinkedHashMap<Integer, Symbol> globalLookups;
+    // Top-level symbols from an earlier check to use again where they're declared the same, see reuseSymbols.
+    @Nullable
+    private HashMap<Symbol, Symbol> reusableSymbols;
+
+    // Handed over to the file's Symbols when the global scope is popped, and replaced with empty ones. What each node
+    // resolved to can be shared with other tables, see sharingResolvedNodes.
+    private ResolvedNodes resolved = new ResolvedNodes(0);
+    // Added as each function's scope is popped, once all its locals are known.
+    private IdentityHashMap<Symbol.Function, FunctionDefinition> functionDefinitions = new IdentityHashMap<>();
+    private IdentityHashMap<TypeExpr, TypeInfo> resolvedTypeRefs = new IdentityHashMap<>();
+    private IdentityHashMap<Expr.Function, Symbol.Function> functionDeclarations = new IdentityHashMap<>();
+
+    public SymbolTable(NameTable names) {
+        this.names = names;
     }
 
     public static class FunctionScope {
@@ -84,63 +84,119 @@ public class SymbolTable {
     }
 
     public void pushGlobalScope() {
-        Scope scope = Scope.createGlobal();
-        scopes.add(scope);
+        if (depth != 0) {
+            throw new IllegalStateException("The global scope has to be the outermost, had " + depth + " scopes open");
+        }
+        pushScope(null);
+        bindType(names.intern("i32"), TypeInfo.I32);
+        bindType(names.intern("f32"), TypeInfo.F32);
+        bindType(names.intern("bool"), TypeInfo.BOOL);
+        bindType(names.intern("void"), TypeInfo.VOID);
+        firstOwnBinding = undoSize;
+    }
+
+    /**
+     * Makes the top-level functions and globals of an imported module visible to the whole file. Has to be done
+     * before any of the file's own items are checked, which can then shadow them. They aren't part of this file's
+     * FileScope, so importing this file doesn't import them again.
+     */
+    void importModule(ModuleInterface module) {
+        if (depth != 1 || undoSize != firstOwnBinding) {
+            throw new IllegalStateException("Imports have to come first, straight into the global scope");
+        }
+        for (Symbol.Function function : module.functions()) {
+            bindValue(names.intern(function.name()), function);
+        }
+        for (Symbol.Global global : module.globals()) {
+            bindValue(names.intern(global.name()), global);
+        }
+        firstOwnBinding = undoSize;
     }
 
     public void pushFunctionScope(Symbol.Function symbol, Expr.Function expr) {
         FunctionScope functionScope = new FunctionScope(symbol, expr);
-        functionScopes.put(symbol, functionScope);
-        Scope scope = new Scope(functionScope);
-        scopes.add(scope);
+        pushScope(functionScope);
 
         List<Symbol.FunctionParam> params = symbol.params();
         for (int i = 0; i < params.size(); i++) {
             Symbol.FunctionParam param = params.get(i);
-            addSymbol(scope, new Symbol.Param(param.name().text(), param.type(), symbol, i, functionScope.locals.size()), param.name());
+            addSymbol(new Symbol.Param(param.name().text(), param.type(), symbol, i, functionScope.locals.size()), param.name());
         }
     }
 
     public void pushBlockScope() {
-        Scope scope = new Scope(getCurrentScope().expectFunction());
-        scopes.add(scope);
+        pushScope(expectFunction());
     }
 
     public void popScope() {
-        if (scopes.size() == 0) {
+        if (depth == 0) {
             throw new IllegalStateException("There's no scope to pop");
         }
-        scopes.remove(scopes.size() - 1);
+        depth--;
+        undoTo(scopeUndoStarts[depth]);
+        FunctionScope function = scopeFunctions[depth];
+        if (function != null && (depth == 0 || scopeFunctions[depth - 1] != function)) {
+            // The function's own scope rather than a block in it, so it has all its locals.
+            functionDefinitions.put(function.symbol, function.toDefinition());
+        }
+        scopeFunctions[depth] = null;
     }
 
+    /**
+     * Pops the global scope. What was resolved is handed over to the FileScope's {@link Symbols} rather than copied,
+     * and the table starts again empty.
+     */
     public FileScope popGlobalScope() {
-        if (scopes.size() != 1) {
-            throw new IllegalStateException("There should be only one scope left, had " + scopes.size());
+        FileScope scope = popGlobalScope(this);
+        resolved = new ResolvedNodes(0);
+        functionDefinitions = new IdentityHashMap<>();
+        resolvedTypeRefs = new IdentityHashMap<>();
+        functionDeclarations = new IdentityHashMap<>();
+        return scope;
+    }
+
+    /**
+     * Pops the global scope, with the Symbols looking at what was resolved in {@code resolved}. They share its tables,
+     * so see whatever it resolves afterwards too.
+     */
+    FileScope popGlobalScope(SymbolTable resolved) {
+        if (depth != 1) {
+            throw new IllegalStateException("There should be only one scope left, had " + depth);
         }
-        Scope scope = scopes.remove(0);
-        if (scope.functionScope != null) {
+        if (scopeFunctions[0] != null) {
             throw new IllegalStateException("Global scope should not have a function scope");
         }
-        return new FileScope(scope.typesNamespace, scope.valuesNamespace, Symbols.fromTable(this));
+        // Everything left in the log was declared at the top level, in declaration order.
+        var types = new LinkedHashMap<String, TypeInfo>();
+        var values = new LinkedHashMap<String, Symbol>();
+        for (int i = 0; i < undoSize; i++) {
+            int nameId = undoNameIds[i];
+            if (undoIsType[i]) {
+                types.put(names.name(nameId), typeBindings[nameId]);
+            } else if (i >= firstOwnBinding) {
+                values.put(names.name(nameId), valueBindings[nameId]);
+            }
+        }
+        popScope();
+        return new FileScope(types, values, new Symbols(resolved));
     }
 
     @Nullable
     public Symbol.Function getCurrentFunctionSymbol() {
-        var current = getCurrentScope().functionScope;
+        var current = currentFunctionScope();
         return current == null ? null : current.symbol;
     }
 
     @NotNull
-    private TypeInfo lookupType(String name) {
-        for (int i = scopes.size() - 1; i >= 0; i--) {
-            Scope scope = scopes.get(i);
-            TypeInfo type = scope.typesNamespace.get(name);
-            if (type != null) {
-                return type;
-            }
+    private TypeInfo lookupType(int nameId) {
+        TypeInfo type = nameId < typeBindings.length ? typeBindings[nameId] : null;
+        if (type == null && globals != null) {
+            type = globals.lookupType(nameId);
         }
-
-        throw new IllegalArgumentException("Unknown type: " + name);
+        if (type == null) {
+            throw new IllegalArgumentException("Unknown type: " + names.name(nameId));
+        }
+        return type;
     }
 
     @NotNull
@@ -150,76 +206,99 @@ public class SymbolTable {
             return resolved;
         }
         resolved = switch (type) {
-            case TypeExpr.Identifier ident -> lookupType(ident.name());
+            case TypeExpr.Identifier ident -> lookupType(ident.id() != Expr.Identifier.NO_ID ? ident.id() : names.intern(ident.name()));
         };
         resolvedTypeRefs.put(type, resolved);
         return resolved;
     }
 
     @NotNull
-    public Symbol lookupSymbol(String name) {
-        for (int i = scopes.size() - 1; i >= 0; i--) {
-            Scope scope = scopes.get(i);
-            Symbol symbol = scope.valuesNamespace.get(name);
-            if (symbol != null) {
-                return symbol;
+    public Symbol lookupSymbol(Expr.Identifier name) {
+        int nameId = nameId(name);
+        Symbol symbol = nameId < valueBindings.length ? valueBindings[nameId] : null;
+        if (symbol == null && globals != null) {
+            symbol = globals.lookupValue(nameId, globalBindingCount);
+            if (globalLookups != null && symbol != null) {
+                globalLookups.put(nameId, symbol);
             }
         }
+        if (symbol == null) {
+            throw new IllegalArgumentException("Unknown symbol: " + name.text());
+        }
+        return symbol;
+    }
 
-        throw new IllegalArgumentException("Unknown symbol: " + name);
+    private int nameId(Expr.Identifier name) {
+        return name.id() != Expr.Identifier.NO_ID ? name.id() : names.intern(name.text());
     }
 
     @NotNull
     public Symbol.Value resolveValue(Expr.Identifier name) {
-        Symbol.Value value = lookupSymbol(name.text()).expectValue();
-        resolvedVarSymbols.put(name, value);
+        Symbol.Value value = lookupSymbol(name).expectValue();
+        resolved.setSymbol(name, value);
         return value;
     }
 
     @NotNull
     public Symbol.Function lookupFunction(Expr.Identifier name) {
-        return lookupSymbol(name.text()).expectFunction();
+        return lookupSymbol(name).expectFunction();
     }
 
     @Nullable
     public TypeInfo tryLookupExpr(Expr expr) {
-        return resolvedExprTypes.get(expr);
+        return resolved.type(expr);
     }
 
     public void setExprType(Expr expr, TypeInfo type) {
-        resolvedExprTypes.put(expr, type);
+        resolved.setType(expr, type);
     }
 
     public void bindCallSite(Expr.Call call, Symbol.Function function) {
         // We don't currently support function pointers, only statically known functions.
-        resolvedCallSites.put(call, function);
+        resolved.setSymbol(call, function);
+    }
+
+    public void bindConstant(Expr.Number number, int constantIndex) {
+        resolved.setConstant(number, constantIndex);
     }
 
-    private void addSymbol(Scope scope, Symbol symbol, Expr.Identifier identifier) {
-        scope.valuesNamespace.put(symbol.name(), symbol);
+    public int lookupConstant(Expr.Number number) {
+        int index = resolved.constant(number);
+        if (index < 0) {
+            throw new IllegalStateException("Number " + number + " was not resolved.");
+        }
+        return index;
+    }
+
+    private void addSymbol(Symbol symbol, Expr.Identifier identifier) {
+        bindValue(nameId(identifier), symbol);
         if (symbol instanceof Symbol.Var var) {
-            FunctionScope functionScope = scope.expectFunction();
+            FunctionScope functionScope = expectFunction();
             assert var.localIndex() == functionScope.locals.size();
             functionScope.locals.add(var);
             if (symbol instanceof Symbol.Param param) {
                 functionScope.params[param.paramIndex()] = param;
             }
-            resolvedVarSymbols.put(identifier, var);
+            resolved.setSymbol(identifier, var);
         }
     }
 
     public void addVariableSymbol(Expr.Identifier name, TypeInfo type) {
-        Scope scope = getCurrentScope();
-        if (scope.functionScope == null) {
-            addSymbol(scope, new Symbol.Global(name.text(), type), name);
+        FunctionScope functionScope = currentFunctionScope();
+        if (functionScope == null) {
+            addSymbol(reuse(new Symbol.Global(name.text(), type)), name);
         } else {
-            addSymbol(scope, new Symbol.Local(name.text(), type, scope.functionScope.symbol, scope.functionScope.locals.size()), name);
+            addSymbol(new Symbol.Local(name.text(), type, functionScope.symbol, functionScope.locals.size()), name);
         }
     }
 
     public void addFunctionSymbol(Expr.Function funcAst, List<Symbol.FunctionParam> params, TypeInfo returnType) {
+        // Only top-level functions are reused, a nested one is checked again along with its body.
         var symbol = new Symbol.Function(funcAst.name().text(), params, returnType);
-        addSymbol(getCurrentScope(), symbol, funcAst.name());
+        if (depth == 1) {
+            symbol = reuse(symbol);
+        }
+        addSymbol(symbol, funcAst.name());
         functionDeclarations.put(funcAst, symbol);
     }
 
@@ -231,60 +310,315 @@ public class SymbolTable {
         return function;
     }
 
-    private Scope getCurrentScope() {
-        if (scopes.isEmpty()) {
+    /** How many bindings have been made in the global scope so far, to say which of them a function body can see. */
+    int globalBindingCount() {
+        if (depth != 1) {
+            throw new IllegalStateException("Only the global scope should be open, had " + depth + " scopes");
+        }
+        return undoSize;
+    }
+
+    /** Freezes the global scope as it is now, so function bodies can be checked against it on other threads. */
+    Globals freezeGlobals() {
+        if (depth != 1) {
+            throw new IllegalStateException("Only the global scope should be open, had " + depth + " scopes");
+        }
+        return new Globals(this);
+    }
+
+    /** Makes room for what's resolved for the first {@code nodeCount} nodes of the file being checked. */
+    void ensureNodeCapacity(int nodeCount) {
+        resolved.ensureCapacity(nodeCount);
+    }
+
+    /**
+     * Returns an empty table that records what it resolves for each node here rather than in its own tables, for
+     * checking top-level function bodies apart from the global scope, on another thread or in another check. Threads
+     * can only share them once they're sized for the whole file, see {@link #ensureNodeCapacity}. The functions it
+     * defines are brought back with {@link #mergeFrom}.
+     */
+    SymbolTable sharingResolvedNodes() {
+        var table = new SymbolTable(names);
+        table.resolved = resolved;
+        return table;
+    }
+
+    /**
+     * Starts checking a top-level function on a table from {@link #sharingResolvedNodes}. Names it doesn't declare
+     * itself are looked up in {@code globals}, where it only sees the first {@code globalBindingCount} bindings, the
+     * ones made before it in the file.
+     */
+    void enterTopLevelFunction(Expr.Function function, Symbol.Function symbol, Globals globals, int globalBindingCount) {
+        if (depth != 0) {
+            throw new IllegalStateException("Can't start a top-level function with " + depth + " scopes open");
+        }
+        functionDeclarations.put(function, symbol);
+        this.globals = globals;
+        this.globalBindingCount = globalBindingCount;
+        if (globalLookups != null) {
+            globalLookups.clear();
+        }
+    }
+
+    /** Records what names the function body being checked found in the globals, see {@link #globalLookups()}. */
+    void trackGlobalLookups() {
+        globalLookups = new LinkedHashMap<>();
+    }
+
+    /** The symbols the current function body resolved from the globals, by name id, in the order they were first used. */
+    Map<Integer, Symbol> globalLookups() {
+        if (globalLookups == null) {
+            throw new IllegalStateException("Global lookups aren't being tracked");
+        }
+        return globalLookups;
+    }
+
+    /**
+     * Has top-level functions and variables declared the same as one of {@code previous} use that symbol rather than
+     * a new one, so what's been resolved against them stays valid. Each is used at most once.
+     */
+    void reuseSymbols(Collection<Symbol> previous) {
+        reusableSymbols = new HashMap<>();
+        for (Symbol symbol : previous) {
+            reusableSymbols.putIfAbsent(symbol, symbol);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <S extends Symbol> S reuse(S symbol) {
+        if (reusableSymbols == null) {
+            return symbol;
+        }
+        Symbol previous = reusableSymbols.remove(symbol);
+        return previous != null ? (S) previous : symbol;
+    }
+
+    /** Drops everything resolved in a top-level item, so it can be checked again. */
+    void forget(Expr.Item item) {
+        Expr.traverseAll(item, expr -> {
+            resolved.forget(expr);
+            switch (expr) {
+                case Expr.Assign assign -> resolved.forget(assign.lhs());
+                case Expr.Let let -> {
+                    resolved.forget(let.name());
+                    resolvedTypeRefs.remove(let.type());
+                }
+                case Expr.Function nested -> {
+                    for (Expr.FuncParam param : nested.parameters()) {
+                        resolved.forget(param.name());
+                        resolvedTypeRefs.remove(param.type());
+                    }
+                    if (nested.returnType() != null) {
+                        resolvedTypeRefs.remove(nested.returnType());
+                    }
+                    Symbol.Function symbol = functionDeclarations.remove(nested);
+                    if (symbol != null) {
+                        functionDefinitions.remove(symbol);
+                    }
+                }
+                default -> {
+                }
+            }
+        });
+    }
+
+    /** Takes in the functions declared and defined on a table from {@link #sharingResolvedNodes}. */
+    void mergeFrom(SymbolTable bodies) {
+        functionDeclarations.putAll(bodies.functionDeclarations);
+        functionDefinitions.putAll(bodies.functionDefinitions);
+    }
+
+    private void pushScope(@Nullable FunctionScope function) {
+        if (depth == scopeUndoStarts.length) {
+            scopeUndoStarts = Arrays.copyOf(scopeUndoStarts, depth * 2);
+            scopeFunctions = Arrays.copyOf(scopeFunctions, depth * 2);
+        }
+        scopeUndoStarts[depth] = undoSize;
+        scopeFunctions[depth] = function;
+        depth++;
+    }
+
+    @Nullable
+    private FunctionScope currentFunctionScope() {
+        if (depth == 0) {
             throw new IllegalStateException("No scopes");
         }
-        return scopes.get(scopes.size() - 1);
+        return scopeFunctions[depth - 1];
     }
 
-    public record Symbols(
-            IdentityHashMap<Expr, TypeInfo> resolvedExprTypes,
-            IdentityHashMap<Expr.Identifier, Symbol.Value> resolvedVarSymbols,
-            IdentityHashMap<Expr.Call, Symbol.Function> resolvedCallSites,
-            IdentityHashMap<Symbol.Function, FunctionDefinition> functionDefinitions
-    ) {
-        public static Symbols fromTable(SymbolTable table) {
-            IdentityHashMap<Symbol.Function, FunctionDefinition> functionDefs = new IdentityHashMap<>();
-            table.functionScopes.forEach((symbol, scope) -> {
-                functionDefs.put(symbol, scope.toDefinition());
-            });
+    private FunctionScope expectFunction() {
+        FunctionScope function = currentFunctionScope();
+        if (function == null) {
+            throw new IllegalStateException("The current scope does not belong to a function");
+        }
+        return function;
+    }
+
+    private void bindValue(int nameId, Symbol symbol) {
+        if (nameId >= valueBindings.length) {
+            valueBindings = Arrays.copyOf(valueBindings, Math.max(valueBindings.length * 2, nameId + 1));
+        }
+        logUndo(nameId, false, valueBindings[nameId]);
+        valueBindings[nameId] = symbol;
+    }
+
+    private void bindType(int nameId, TypeInfo type) {
+        if (nameId >= typeBindings.length) {
+            typeBindings = Arrays.copyOf(typeBindings, Math.max(typeBindings.length * 2, nameId + 1));
+        }
+        logUndo(nameId, true, typeBindings[nameId]);
+        typeBindings[nameId] = type;
+    }
+
+    private void logUndo(int nameId, boolean isType, @Nullable Object shadowed) {
+        if (undoSize == undoNameIds.length) {
+            undoNameIds = Arrays.copyOf(undoNameIds, undoSize * 2);
+            undoIsType = Arrays.copyOf(undoIsType, undoSize * 2);
+            undoShadowed = Arrays.copyOf(undoShadowed, undoSize * 2);
+        }
+        undoNameIds[undoSize] = nameId;
+        undoIsType[undoSize] = isType;
+        undoShadowed[undoSize] = shadowed;
+        undoSize++;
+    }
+
+    /** Puts back whatever the bindings since {@code start} shadowed, latest first. */
+    private void undoTo(int start) {
+        while (undoSize > start) {
+            undoSize--;
+            int nameId = undoNameIds[undoSize];
+            if (undoIsType[undoSize]) {
+                typeBindings[nameId] = (TypeInfo) undoShadowed[undoSize];
+            } else {
+                valueBindings[nameId] = (Symbol) undoShadowed[undoSize];
+            }
+            undoShadowed[undoSize] = null;
+        }
+    }
+
+    /**
+     * The global scope of a file, frozen. A name can be bound more than once at the top level, so each value binding
+     * keeps its place in the undo log, and a lookup follows the chain back to the latest one made before the lookup's
+     * cut off. Read only, so any number of threads can share it.
+     */
+    static final class Globals {
+        private final TypeInfo[] types;
+        // Per name id, the log position of its latest value binding. Per log position, the one that binding
+        // shadowed, or -1, and the symbol it bound.
+        private final int[] latest;
+        private final int[] shadowed;
+        private final Symbol[] symbols;
+
+        private Globals(SymbolTable table) {
+            types = table.typeBindings.clone();
+            latest = new int[table.valueBindings.length];
+            Arrays.fill(latest, -1);
+            shadowed = new int[table.undoSize];
+            symbols = new Symbol[table.undoSize];
+            for (int i = 0; i < table.undoSize; i++) {
+                if (table.undoIsType[i]) {
+                    continue;
+                }
+                int nameId = table.undoNameIds[i];
+                int previous = latest[nameId];
+                if (previous >= 0) {
+                    symbols[previous] = (Symbol) table.undoShadowed[i];
+                }
+                shadowed[i] = previous;
+                latest[nameId] = i;
+            }
+            for (int nameId = 0; nameId < latest.length; nameId++) {
+                if (latest[nameId] >= 0) {
+                    symbols[latest[nameId]] = table.valueBindings[nameId];
+                }
+            }
+        }
 
-            return new Symbols(
-                    new IdentityHashMap<>(table.resolvedExprTypes),
-                    new IdentityHashMap<>(table.resolvedVarSymbols),
-                    new IdentityHashMap<>(table.resolvedCallSites),
-                    functionDefs
-            );
+        /** Every top-level value, shadowed ones included. */
+        List<Symbol> values() {
+            var values = new ArrayList<Symbol>();
+            for (Symbol symbol : symbols) {
+                if (symbol != null) {
+                    values.add(symbol);
+                }
+            }
+            return values;
+        }
+
+        @Nullable
+        private TypeInfo lookupType(int nameId) {
+            return nameId < types.length ? types[nameId] : null;
+        }
+
+        /** The latest value bound to the name among the first {@code bindingCount} bindings, if any. */
+        @Nullable
+        Symbol lookupValue(int nameId, int bindingCount) {
+            int entry = nameId < latest.length ? latest[nameId] : -1;
+            while (entry >= bindingCount) {
+                entry = shadowed[entry];
+            }
+            return entry < 0 ? null : symbols[entry];
+        }
+    }
+
+    /** What was resolved in a file, for the backends. Read only. */
+    public static final class Symbols {
+        private final ResolvedNodes resolved;
+        private final IdentityHashMap<Symbol.Function, FunctionDefinition> functionDefinitions;
+
+        private Symbols(SymbolTable table) {
+            this.resolved = table.resolved;
+            this.functionDefinitions = table.functionDefinitions;
+        }
+
+        public Map<Symbol.Function, FunctionDefinition> functionDefinitions() {
+            return Collections.unmodifiableMap(functionDefinitions);
         }
 
         @NotNull
         public Symbol.Value lookupValue(Expr.Identifier ident) {
-            Symbol.Value var = resolvedVarSymbols.get(ident);
+            Symbol.Value var = tryLookupValue(ident);
             if (var == null) {
                 throw new IllegalStateException("Var " + ident + " was not resolved.");
             }
             return var;
         }
 
+        @Nullable
+        public Symbol.Value tryLookupValue(Expr.Identifier ident) {
+            return resolved.symbol(ident) instanceof Symbol.Value var ? var : null;
+        }
+
         @NotNull
         public Symbol.Function lookupCallSite(Expr.Call call) {
-            Symbol.Function function = resolvedCallSites.get(call);
-            if (function == null) {
+            if (!(resolved.symbol(call) instanceof Symbol.Function function)) {
                 throw new IllegalStateException("Callsite " + call + " was not resolved.");
             }
             return function;
         }
 
+        public int lookupConstant(Expr.Number number) {
+            int index = resolved.constant(number);
+            if (index < 0) {
+                throw new IllegalStateException("Number " + number + " was not resolved.");
+            }
+            return index;
+        }
+
         @NotNull
         public TypeInfo lookupExprType(Expr expr) {
-            TypeInfo typeInfo = resolvedExprTypes.get(expr);
+            TypeInfo typeInfo = tryLookupExprType(expr);
             if (typeInfo == null) {
                 throw new IllegalStateException("Expr " + expr + " was not resolved.");
             }
             return typeInfo;
         }
 
+        @Nullable
+        public TypeInfo tryLookupExprType(Expr expr) {
+            return resolved.type(expr);
+        }
+
         @NotNull
         public FunctionDefinition lookupFunctionScope(Symbol.Function function) {
             FunctionDefinition def = functionDefinitions.get(function);
@@ -1,8 +1,10 @@
 package org.example.typecheck;
 
+import org.example.CompileErrors;
 import org.example.CompilerCtx;
 import org.example.parse.Expr;
 import org.example.parse.ParsedFile;
+import org.example.parse.SourceRange;
 import org.jetbrains.annotations.NotNull;
 
 import java.util.ArrayList;
@@ -13,14 +15,31 @@ public class TypeChecker {
     private final SymbolTable table;
 
     public TypeChecker(CompilerCtx ctx) {
+        this(ctx, ctx.symbols);
+    }
+
+    /** Checks on a table of its own rather than the context's, so other files can be checked at the same time. */
+    public TypeChecker(CompilerCtx ctx, SymbolTable table) {
         this.ctx = ctx;
-        this.table = ctx.symbols;
+        this.table = table;
     }
 
     public SymbolTable.FileScope checkFile(ParsedFile file) {
+        return checkFile(file, List.of());
+    }
+
+    /** Checks a file that imports other modules, given the interface of each of its imports in order. */
+    public SymbolTable.FileScope checkFile(ParsedFile file, List<ModuleInterface> imports) {
+        if (imports.size() != file.imports().size()) {
+            throw new IllegalArgumentException("The file has " + file.imports().size() + " imports, but was given " + imports.size() + " interfaces");
+        }
+        table.ensureNodeCapacity(ctx.nodeIdCount(file.file().uid()));
         table.pushGlobalScope();
         SymbolTable.FileScope scope;
         try {
+            for (ModuleInterface module : imports) {
+                table.importModule(module);
+            }
             resolveExprList(file.items());
         } finally {
             scope = table.popGlobalScope();
@@ -32,11 +51,7 @@ public class TypeChecker {
         // TODO: 1) Resolve type definitions
 
         // 2) Resolve functions
-        for (var expr : exprList) {
-            if (expr instanceof Expr.Function function) {
-                resolveFunctionSymbol(function);
-            }
-        }
+        resolveFunctionSymbols(exprList);
 
         // 3) Resolve all other expressions
         for (var expr : exprList) {
@@ -70,6 +85,19 @@ public class TypeChecker {
             case Expr.If anIf -> checkIfStmt(anIf);
             case Expr.Number number -> {
                 // TODO: Support more than one number type
+                int value;
+                try {
+                    value = Integer.parseInt(number.text());
+                } catch (NumberFormatException e) {
+                    // A shared literal is only checked once, so report it everywhere it was written.
+                    List<SourceRange> ranges = ctx.hashConsing != null ? ctx.hashConsing.occurrences(number) : List.of(number.range());
+                    CompilerCtx.ParseError error = null;
+                    for (SourceRange range : ranges) {
+                        error = ctx.reportParseError(range.fileUid(), range.startOffset(), range.endOffset(), CompileErrors.Message.NUMBER_OUT_OF_RANGE, TypeInfo.I32);
+                    }
+                    throw error;
+                }
+                table.bindConstant(number, ctx.constants.addI32(value));
                 yield TypeInfo.I32;
             }
             case Expr.Boolean ignored -> TypeInfo.BOOL;
@@ -208,6 +236,15 @@ public class TypeChecker {
         }
     }
 
+    /** Declares the functions in the list, so they can be called from anywhere in the current scope. */
+    <T extends Expr> void resolveFunctionSymbols(List<T> exprList) {
+        for (var expr : exprList) {
+            if (expr instanceof Expr.Function function) {
+                resolveFunctionSymbol(function);
+            }
+        }
+    }
+
     private void resolveFunctionSymbol(Expr.Function function) {
         List<Symbol.FunctionParam> params = new ArrayList<>();
         for (var param : function.parameters()) {
@@ -0,0 +1,128 @@
+package org.example.token;
+
+import org.example.CompilerCtx;
+import org.example.parse.AstCache;
+import org.example.parse.Expr;
+import org.example.parse.ParsedFile;
+import org.example.typecheck.TypeChecker;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.example.CompilerCtx.readResource;
+import static org.junit.Assert.assertEquals;
+
+public class AstCacheTest {
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void cachedFilesLoadLikeParsedOnes() throws IOException {
+        Path directory = temp.newFolder().toPath();
+        var cache = new AstCache(directory);
+        for (String sample : List.of("factorial.txt", "fibonacci.txt", "typechecking.txt")) {
+            Path path = Files.writeString(directory.resolve(sample), readResource("/lang_samples/" + sample));
+            ParsedFile parsed = parseWithCache(cache, path);
+            ParsedFile loaded = parseWithCache(cache, path);
+
+            var ctx = new CompilerCtx();
+            ParsedFile expected = ctx.createParser(ctx.addFile(path)).parseFile();
+            assertEquals(expected.items(), parsed.items());
+            assertEquals(expected.items(), loaded.items());
+            assertEquals(ranges(expected), ranges(loaded));
+        }
+        assertEquals(3, cache.hits());
+        assertEquals(3, cache.misses());
+
+        // A loaded file is as good as a parsed one to the rest of the compiler.
+        var ctx = new CompilerCtx();
+        ctx.astCache = cache;
+        ParsedFile loaded = ctx.parseFile(ctx.addFile(directory.resolve("typechecking.txt")));
+        ctx.checkSourceRangeInfoIsPresent(loaded);
+        new TypeChecker(ctx).checkFile(loaded);
+        assertEquals(4, cache.hits());
+    }
+
+    @Test
+    public void importsAreCached() throws IOException {
+        Path directory = temp.newFolder().toPath();
+        var cache = new AstCache(directory);
+        Path path = Files.writeString(directory.resolve("main.txt"), "import io;\nimport math;\nfunc main() {}\n");
+        ParsedFile parsed = parseWithCache(cache, path);
+        ParsedFile loaded = parseWithCache(cache, path);
+        assertEquals(1, cache.hits());
+        assertEquals(parsed.imports(), loaded.imports());
+        assertEquals(List.of("io", "math"), loaded.imports().stream().map(Expr.Identifier::text).toList());
+        assertEquals(parsed.items(), loaded.items());
+        assertEquals(ranges(parsed), ranges(loaded));
+    }
+
+    @Test
+    public void changedOrCorruptFilesAreReparsed() throws IOException {
+        Path directory = temp.newFolder().toPath();
+        var cache = new AstCache(directory);
+        Path path = Files.writeString(directory.resolve("source.txt"), "func main() {}\n");
+        parseWithCache(cache, path);
+        Files.writeString(path, "func main() { let a: i32 = 1; }\n");
+        assertEquals(1, parseWithCache(cache, path).items().size());
+        assertEquals(0, cache.hits());
+
+        try (Stream<Path> entries = Files.list(directory)) {
+            for (Path entry : entries.filter(p -> p.toString().endsWith(".ast")).toList()) {
+                Files.write(entry, new byte[] { 0x41, 0x53, 0x54 });
+            }
+        }
+        ParsedFile reparsed = parseWithCache(cache, path);
+        assertEquals(new CompilerCtx().createParser(new CompilerCtx().addInMemoryFile("", "func main() { let a: i32 = 1; }\n")).parseFile().items(), reparsed.items());
+        assertEquals(0, cache.hits());
+        parseWithCache(cache, path);
+        assertEquals(1, cache.hits());
+    }
+
+    @Test
+    public void truncatedEntriesDontUseUpNodeIds() throws IOException {
+        Path directory = temp.newFolder().toPath();
+        var cache = new AstCache(directory);
+        Path path = Files.writeString(directory.resolve("typechecking.txt"), readResource("/lang_samples/typechecking.txt"));
+        parseWithCache(cache, path);
+        try (Stream<Path> entries = Files.list(directory)) {
+            for (Path entry : entries.filter(p -> p.toString().endsWith(".ast")).toList()) {
+                byte[] bytes = Files.readAllBytes(entry);
+                Files.write(entry, Arrays.copyOf(bytes, bytes.length / 2));
+            }
+        }
+
+        var ctx = new CompilerCtx();
+        CompilerCtx.FileInfo file = ctx.addFile(path);
+        cache.parseFile(ctx, file);
+        assertEquals(0, cache.hits());
+        var fresh = new CompilerCtx();
+        CompilerCtx.FileInfo freshFile = fresh.addFile(path);
+        fresh.createParser(freshFile).parseFile();
+        assertEquals(fresh.nodeIdCount(freshFile.uid()), ctx.nodeIdCount(file.uid()));
+    }
+
+    private static ParsedFile parseWithCache(AstCache cache, Path path) throws IOException {
+        var ctx = new CompilerCtx();
+        return cache.parseFile(ctx, ctx.addFile(path));
+    }
+
+    private static List<String> ranges(ParsedFile file) {
+        var ranges = new ArrayList<String>();
+        for (Expr.Identifier imported : file.imports()) {
+            ranges.add(imported.range().startOffset() + "-" + imported.range().endOffset());
+        }
+        for (Expr.Item item : file.items()) {
+            Expr.traverseAll(item, expr -> ranges.add(expr.range().startOffset() + "-" + expr.range().endOffset()));
+        }
+        return ranges;
+    }
+}
@@ -0,0 +1,466 @@
+package org.example.token;
+
+import org.example.CompilerCtx;
+import org.example.interpret.TreeInterpreter;
+import org.example.parse.AstCache;
+import org.example.parse.Expr;
+import org.example.parse.FlatAst;
+import org.example.parse.HashConsing;
+import org.example.parse.IncrementalParser;
+import org.example.parse.ParallelParser;
+import org.example.parse.ParsedFile;
+import org.example.typecheck.IncrementalTypeChecker;
+import org.example.typecheck.ParallelTypeChecker;
+import org.example.typecheck.SymbolTable;
+import org.example.typecheck.TypeChecker;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiFunction;
+
+/**
+ * Rough timing harness for the hot paths in the compiler. Not run as part of the test suite, run main() by hand.
+ */
+public class Benchmarks {
+    public static void main(String[] args) {
+        sourceSpanResolution();
+        tokenBuffer();
+        identifierLexing();
+        vectorizedLexing();
+        parallelLexing();
+        parallelParsing();
+        incrementalReparse();
+        parseAndTypeCheck();
+        nestedScopes();
+        parallelTypeChecking();
+        incrementalTypeCheck();
+        astCache();
+        interpreterReturns();
+        interpreterFibonacci();
+        astHeapUsage();
+        hashConsing();
+        symbolsHeapUsage();
+    }
+
+    /** Span resolution should cost the same regardless of how far into the file the span is. */
+    public static void sourceSpanResolution() {
+        System.out.println("== getSourceSpan ==");
+        for (int numFunctions : new int[] { 100, 1_000, 10_000, 100_000 }) {
+            var ctx = new CompilerCtx();
+            String source = generateSource(numFunctions);
+            CompilerCtx.FileInfo file = ctx.addInMemoryFile("bench", source);
+            int iterations = 100_000;
+            long elapsed = time(() -> {
+                int sink = 0;
+                for (int i = 0; i < iterations; i++) {
+                    int start = source.length() - 1 - (i % 1000);
+                    sink += ctx.getSourceSpan(file.uid(), start, start + 1).start().line();
+                }
+                return sink;
+            });
+            System.out.printf("%9d chars: %6.1f ns/span%n", source.length(), (double) elapsed / iterations);
+        }
+    }
+
+    /** Lexing into a packed TokenBuffer versus a list of Token records. */
+    public static void tokenBuffer() {
+        System.out.println("== tokenizeAll vs tokenizeToBuffer ==");
+        String source = generateSource(100_000);
+        var ctx = new CompilerCtx();
+        CompilerCtx.FileInfo file = ctx.addInMemoryFile("bench", source);
+        long listTime = time(() -> ctx.createTokenizer(file).tokenizeAll().size());
+        long bufferTime = time(() -> ctx.createTokenizer(file).tokenizeToBuffer().size());
+        // Parsing records spans into the context, so use a fresh one each run.
+        long parseTime = time(() -> {
+            var parseCtx = new CompilerCtx();
+            return parseCtx.createParser(parseCtx.addInMemoryFile("bench", source)).parseFile().items().size();
+        });
+        long bufferedParseTime = time(() -> {
+            var parseCtx = new CompilerCtx();
+            return parseCtx.createBufferedParser(parseCtx.addInMemoryFile("bench", source)).parseFile().items().size();
+        });
+        System.out.printf("tokenizeAll:      %6.1f ms%n", listTime / 1e6);
+        System.out.printf("tokenizeToBuffer: %6.1f ms%n", bufferTime / 1e6);
+        System.out.printf("parse (streamed): %6.1f ms%n", parseTime / 1e6);
+        System.out.printf("parse (buffered): %6.1f ms%n", bufferedParseTime / 1e6);
+    }
+
+    /** Lexing input made up almost entirely of identifiers and keywords. */
+    public static void identifierLexing() {
+        System.out.println("== identifier-heavy lexing ==");
+        var sb = new StringBuilder();
+        String[] words = { "func", "while", "has-more-chars?", "if", "else", "my-variable", "let", "true", "counter",
+                "false", "return", "listEmpty?", "returned", "iffy", "x" };
+        for (int i = 0; i < 2_000_000; i++) {
+            sb.append(words[i % words.length]).append(i % 16 == 0 ? '\n' : ' ');
+        }
+        var ctx = new CompilerCtx();
+        CompilerCtx.FileInfo file = ctx.addInMemoryFile("bench", sb.toString());
+        long elapsed = time(() -> ctx.createTokenizer(file).tokenizeToBuffer().size());
+        System.out.printf("%d identifiers: %6.1f ms (%.1f ns/token)%n", 2_000_000, elapsed / 1e6, elapsed / 2e6);
+    }
+
+    /** Scalar versus Vector API whitespace and comment skipping, on a heavily commented memory-mapped file. */
+    public static void vectorizedLexing() {
+        System.out.println("== scalar vs vectorized lexing ==");
+        var sb = new StringBuilder();
+        for (int i = 0; i < 200_000; i++) {
+            sb.append("        // This line of generated code has a long comment explaining what it does\n");
+            sb.append("        let x").append(i).append(": i32 = ").append(i).append(";\n\n");
+        }
+        try {
+            Path path = Files.createTempFile("bench", ".txt");
+            try {
+                Files.writeString(path, sb.toString());
+                var ctx = new CompilerCtx();
+                CompilerCtx.FileInfo file = ctx.addFile(path);
+                long scalar = time(() -> ctx.createTokenizer(file).tokenizeToBuffer().size());
+                ctx.vectorizedLexing = true;
+                long vectorized = time(() -> ctx.createTokenizer(file).tokenizeToBuffer().size());
+                System.out.printf("scalar:     %6.1f ms%n", scalar / 1e6);
+                System.out.printf("vectorized: %6.1f ms%n", vectorized / 1e6);
+            } finally {
+                Files.delete(path);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /** Lexing a large file on one thread versus split across the common ForkJoinPool. */
+    public static void parallelLexing() {
+        System.out.println("== sequential vs parallel lexing (" + Runtime.getRuntime().availableProcessors() + " cores) ==");
+        var ctx = new CompilerCtx();
+        CompilerCtx.FileInfo file = ctx.addInMemoryFile("bench", generateSource(200_000));
+        long sequential = time(() -> ctx.createTokenizer(file).tokenizeToBuffer().size());
+        var pool = new ForkJoinPool(Math.max(2, Runtime.getRuntime().availableProcessors()));
+        long parallel = time(() -> new ParallelLexer(ctx, pool).tokenize(file).size());
+        System.out.printf("sequential: %6.1f ms%n", sequential / 1e6);
+        System.out.printf("parallel:   %6.1f ms%n", parallel / 1e6);
+    }
+
+    /** Parsing items on several threads versus one, both from a token buffer. */
+    public static void parallelParsing() {
+        System.out.println("== sequential vs parallel parsing (" + Runtime.getRuntime().availableProcessors() + " cores) ==");
+        var ctx = new CompilerCtx();
+        CompilerCtx.FileInfo file = ctx.addInMemoryFile("bench", generateSource(200_000));
+        var pool = new ForkJoinPool(Math.max(2, Runtime.getRuntime().availableProcessors()));
+        long sequential = time(() -> ctx.createBufferedParser(file).parseFile().items().size());
+        long parallel = time(() -> new ParallelParser(ctx, pool).parseFile(file).items().size());
+        System.out.printf("sequential: %6.1f ms%n", sequential / 1e6);
+        System.out.printf("parallel:   %6.1f ms%n", parallel / 1e6);
+    }
+
+    /** Reparsing after editing one function near the start of a large file, versus parsing it all again. */
+    public static void incrementalReparse() {
+        System.out.println("== full vs incremental reparse ==");
+        String source = generateSource(100_000);
+        var ctx = new CompilerCtx();
+        ParsedFile file = ctx.createParser(ctx.addInMemoryFile("bench", source)).parseFile();
+        int offset = source.indexOf("c = c + 1;", source.indexOf("func generated-10("));
+        var edit = new TextEdit(offset, 0, "c = c * 2;\n");
+        // Each reparse moves the old file's items, so keep editing the latest version.
+        ParsedFile[] latest = { file };
+        long incremental = time(() -> {
+            latest[0] = new IncrementalParser(ctx).reparse(latest[0], edit).file();
+            return latest[0].items().size();
+        });
+        long full = time(() -> {
+            var fullCtx = new CompilerCtx();
+            return fullCtx.createParser(fullCtx.addInMemoryFile("bench", source)).parseFile().items().size();
+        });
+        System.out.printf("full:        %6.1f ms%n", full / 1e6);
+        System.out.printf("incremental: %6.1f ms%n", incremental / 1e6);
+    }
+
+    /** Parsing and type checking a large file, where every identifier is looked up in the scopes. */
+    public static void parseAndTypeCheck() {
+        System.out.println("== parse + type check ==");
+        String source = generateSource(100_000);
+        long elapsed = time(() -> {
+            var ctx = new CompilerCtx();
+            ParsedFile file = ctx.createParser(ctx.addInMemoryFile("bench", source)).parseFile();
+            return new TypeChecker(ctx).checkFile(file).valuesNamespace().size();
+        });
+        System.out.printf("%9d chars: %6.1f ms%n", source.length(), elapsed / 1e6);
+    }
+
+    /** Type checking deeply nested blocks, where names are looked up from many scopes down. */
+    public static void nestedScopes() {
+        System.out.println("== type check nested scopes ==");
+        String source = generateNestedSource(2_000, 32);
+        long checkTime = timeCheck(source, (ctx, file) -> new TypeChecker(ctx).checkFile(file));
+        System.out.printf("%9d chars: %6.1f ms%n", source.length(), checkTime / 1e6);
+    }
+
+    /** Type checking function bodies on several threads versus one. */
+    public static void parallelTypeChecking() {
+        System.out.println("== sequential vs parallel type checking (" + Runtime.getRuntime().availableProcessors() + " cores) ==");
+        String source = generateSource(100_000);
+        var pool = new ForkJoinPool(Math.max(2, Runtime.getRuntime().availableProcessors()));
+        long sequential = timeCheck(source, (ctx, file) -> new TypeChecker(ctx).checkFile(file));
+        long parallel = timeCheck(source, (ctx, file) -> new ParallelTypeChecker(ctx, pool).checkFile(file));
+        System.out.printf("sequential: %6.1f ms%n", sequential / 1e6);
+        System.out.printf("parallel:   %6.1f ms%n", parallel / 1e6);
+    }
+
+    /**
+     * Times only the check. A context's symbol table keeps what it's resolved, and the names in a parsed file belong
+     * to its context, so each run parses the file again into a fresh one.
+     */
+    private static long timeCheck(String source, BiFunction<CompilerCtx, ParsedFile, SymbolTable.FileScope> check) {
+        long[] checkTime = { 0 };
+        time(() -> {
+            var ctx = new CompilerCtx();
+            ParsedFile file = ctx.createParser(ctx.addInMemoryFile("bench", source)).parseFile();
+            long start = System.nanoTime();
+            int size = check.apply(ctx, file).valuesNamespace().size();
+            checkTime[0] = System.nanoTime() - start;
+            return size;
+        });
+        return checkTime[0];
+    }
+
+    /** Checking a large file again after editing one function body, versus checking it all again. */
+    public static void incrementalTypeCheck() {
+        System.out.println("== full vs incremental type check ==");
+        String source = generateSource(100_000);
+        long full = timeCheck(source, (ctx, file) -> new TypeChecker(ctx).checkFile(file));
+
+        var ctx = new CompilerCtx();
+        ParsedFile file = ctx.createParser(ctx.addInMemoryFile("bench", source)).parseFile();
+        var checker = new IncrementalTypeChecker(ctx);
+        checker.check(file);
+        // Each reparse moves the old file's items, so keep editing the latest version.
+        ParsedFile[] latest = { file };
+        int[] rechecked = { 0 };
+        long[] checkTime = { 0 };
+        time(() -> {
+            int offset = latest[0].file().text().toString().indexOf("c = c + 1;", source.indexOf("func generated-10("));
+            latest[0] = new IncrementalParser(ctx).reparse(latest[0], new TextEdit(offset, 0, "c = c * 2;\n")).file();
+            long start = System.nanoTime();
+            IncrementalTypeChecker.Result result = checker.check(latest[0]);
+            checkTime[0] = System.nanoTime() - start;
+            rechecked[0] = result.recheckedCount();
+            return result.scope().valuesNamespace().size();
+        });
+        System.out.printf("full:        %6.1f ms%n", full / 1e6);
+        System.out.printf("incremental: %6.1f ms (%d body checked again)%n", checkTime[0] / 1e6, rechecked[0]);
+    }
+
+    /** Loading a file's AST from the on-disk cache versus parsing it. */
+    public static void astCache() {
+        System.out.println("== AST cache ==");
+        try {
+            Path directory = Files.createTempDirectory("ast-cache");
+            Path path = Files.writeString(directory.resolve("bench.txt"), generateSource(100_000));
+            var cache = new AstCache(directory);
+            long parseTime = time(() -> {
+                var ctx = new CompilerCtx();
+                return ctx.createParser(addFile(ctx, path)).parseFile().items().size();
+            });
+            long loadTime = time(() -> {
+                var ctx = new CompilerCtx();
+                return cache.parseFile(ctx, addFile(ctx, path)).items().size();
+            });
+            long entryBytes;
+            try (var entries = Files.list(directory)) {
+                entryBytes = entries.filter(p -> p.toString().endsWith(".ast")).mapToLong(p -> p.toFile().length()).sum();
+            }
+            System.out.printf("parse: %6.1f ms, load: %6.1f ms, %d bytes cached for %d source bytes%n",
+                    parseTime / 1e6, loadTime / 1e6, entryBytes, Files.size(path));
+            System.out.println(cache.formatStats());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static CompilerCtx.FileInfo addFile(CompilerCtx ctx, Path path) {
+        try {
+            return ctx.addFile(path);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /** Interpreting factorial.txt, where every level of factorialRecursive executes a return. */
+    public static void interpreterReturns() {
+        System.out.println("== interpreter returns (factorial.txt) ==");
+        var ctx = new CompilerCtx();
+        ParsedFile file = ctx.createParser(ctx.addInMemoryFile("factorial", CompilerCtx.readResource("/lang_samples/factorial.txt"))).parseFile();
+        SymbolTable.FileScope fileScope = new TypeChecker(ctx).checkFile(file);
+        // main() executes 36 returns: 32 in factorialRecursive and 4 in factorialIterative.
+        int returnsPerRun = 36;
+        int runs = 20_000;
+        // println goes to stdout, which would swamp the timings.
+        PrintStream stdout = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        long elapsed;
+        try {
+            elapsed = time(() -> {
+                for (int i = 0; i < runs; i++) {
+                    new TreeInterpreter(ctx, fileScope).interpretFromEntrypoint();
+                }
+                return runs;
+            });
+        } finally {
+            System.setOut(stdout);
+        }
+        System.out.printf("%d runs: %6.1f ms (%.1f ns/return)%n", runs, elapsed / 1e6, (double) elapsed / runs / returnsPerRun);
+    }
+
+    /** A whole run of fibonacci.txt, mostly loop arithmetic and literals. */
+    public static void interpreterFibonacci() {
+        System.out.println("== interpreter (fibonacci.txt) ==");
+        var ctx = new CompilerCtx();
+        ParsedFile file = ctx.createParser(ctx.addInMemoryFile("fibonacci", CompilerCtx.readResource("/lang_samples/fibonacci.txt"))).parseFile();
+        SymbolTable.FileScope fileScope = new TypeChecker(ctx).checkFile(file);
+        int runs = 50_000;
+        PrintStream stdout = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        long elapsed;
+        try {
+            elapsed = time(() -> {
+                for (int i = 0; i < runs; i++) {
+                    new TreeInterpreter(ctx, fileScope).interpretFromEntrypoint();
+                }
+                return runs;
+            });
+        } finally {
+            System.setOut(stdout);
+        }
+        System.out.printf("%d runs: %6.1f ms (%.2f us/run)%n", runs, elapsed / 1e6, (double) elapsed / runs / 1e3);
+    }
+
+    /** Heap retained per AST node, including its source range bookkeeping, after parsing a large file. */
+    public static void astHeapUsage() {
+        System.out.println("== AST heap usage ==");
+        String source = generateSource(100_000);
+        long before = usedHeap();
+        var ctx = new CompilerCtx();
+        ParsedFile file = ctx.createBufferedParser(ctx.addInMemoryFile("bench", source)).parseFile();
+        long after = usedHeap();
+        int[] nodes = { 0 };
+        for (Expr.Item item : file.items()) {
+            Expr.traverseAll(item, expr -> nodes[0]++);
+        }
+        System.out.printf("Expr tree: %d nodes: %6.1f MB (%.1f bytes/node)%n", nodes[0], (after - before) / 1e6, (double) (after - before) / nodes[0]);
+
+        FlatAst flat = FlatAst.from(file);
+        file = null;
+        long flatAfter = usedHeap();
+        System.out.printf("FlatAst:   %d nodes: %6.1f MB (%.1f bytes/node)%n", flat.size(), (flatAfter - before) / 1e6, (double) (flatAfter - before) / flat.size());
+        if (ctx.getFile(flat.getFile().uid()) == null) {
+            System.out.print("");
+        }
+    }
+
+    /** Heap retained by type checking a large file, while both the context and the file's scope are still in use. */
+    public static void symbolsHeapUsage() {
+        System.out.println("== type check heap usage ==");
+        String source = generateSource(100_000);
+        var ctx = new CompilerCtx();
+        ParsedFile file = ctx.createParser(ctx.addInMemoryFile("bench", source)).parseFile();
+        long before = usedHeap();
+        SymbolTable.FileScope scope = new TypeChecker(ctx).checkFile(file);
+        long after = usedHeap();
+        System.out.printf("%9d chars: %6.1f MB retained%n", source.length(), (after - before) / 1e6);
+        if (scope.symbols() == null || ctx.symbols == null) {
+            System.out.print("");
+        }
+    }
+
+    /** Heap retained by the Expr tree with and without its pure subtrees shared. */
+    public static void hashConsing() {
+        System.out.println("== hash-consing ==");
+        String source = generateSource(100_000);
+        long before = usedHeap();
+        var ctx = new CompilerCtx();
+        ParsedFile file = ctx.createParser(ctx.addInMemoryFile("bench", source)).parseFile();
+        long parsed = usedHeap();
+        var hashConsing = new HashConsing();
+        file = hashConsing.apply(file);
+        long consed = usedHeap();
+        System.out.printf("parsed: %6.1f MB, hash-consed: %6.1f MB, %d nodes shared%n",
+                (parsed - before) / 1e6, (consed - before) / 1e6, hashConsing.sharedCount());
+        if (file.items().isEmpty()) {
+            System.out.print("");
+        }
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /** Generates a file with the given number of small functions, for benchmarking large inputs. */
+    public static String generateSource(int numFunctions) {
+        var sb = new StringBuilder();
+        sb.append("func println(a: i32) {}\n\n");
+        for (int i = 0; i < numFunctions; i++) {
+            sb.append("// Generated function number ").append(i).append('\n');
+            sb.append("func generated-").append(i).append("(a: i32, b: i32) -> i32 {\n");
+            sb.append("    let c: i32 = a + b * ").append(i).append(";\n");
+            sb.append("    while (c < 1000) {\n");
+            sb.append("        c = c + 1;\n");
+            sb.append("    };\n");
+            sb.append("    return c;\n");
+            sb.append("}\n\n");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Functions made of blocks nested {@code depth} deep. Every other level declares a variable, the rest are empty
+     * loop bodies, and the innermost block uses names from every level and the top of the file.
+     */
+    public static String generateNestedSource(int numFunctions, int depth) {
+        var sb = new StringBuilder();
+        sb.append("func println(a: i32) {}\n\n");
+        for (int i = 0; i < numFunctions; i++) {
+            sb.append("func nested-").append(i).append("(a: i32) {\n");
+            for (int d = 0; d < depth; d++) {
+                String indent = "    ".repeat(d + 1);
+                if (d % 2 == 0) {
+                    sb.append(indent).append("let v").append(d).append(": i32 = a + ").append(d).append(";\n");
+                    sb.append(indent).append("if (v").append(d).append(" < a) {\n");
+                } else {
+                    sb.append(indent).append("while (false) {};\n");
+                    sb.append(indent).append("if (true) {\n");
+                }
+            }
+            String indent = "    ".repeat(depth + 1);
+            for (int d = 0; d < depth; d += 2) {
+                sb.append(indent).append("println(v").append(d).append(" + a);\n");
+            }
+            for (int d = depth - 1; d >= 0; d--) {
+                sb.append("    ".repeat(d + 1)).append("};\n");
+            }
+            sb.append("}\n\n");
+        }
+        return sb.toString();
+    }
+
+    /** Runs the block a few times to warm up, then returns the time taken by the last run in nanoseconds. */
+    static long time(java.util.function.IntSupplier block) {
+        long elapsed = 0;
+        int sink = 0;
+        for (int i = 0; i < 5; i++) {
+            long start = System.nanoTime();
+            sink += block.getAsInt();
+            elapsed = System.nanoTime() - start;
+        }
+        if (sink == 42) {
+            System.out.print("");
+        }
+        return elapsed;
+    }
+}
@@ -0,0 +1,93 @@
+package org.example.token;
+
+import org.example.CompilerCtx;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.example.CompilerCtx.readResource;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+public class IncrementalLexerTest {
+    private static final String[] INSERTIONS = {
+            "", " ", "\n", "a", "x-y", "-", ">", "=", "!", "<", "/", "//", "// comment\n", "1", "23", "func", "if",
+            "else", "true", "(", ")", "{", "}", ";", ":", "&&", "||", "let b: i32 = 5;\n",
+    };
+
+    @Test
+    public void typingAKeyword() {
+        String source = "func main() {\n    le x: i32 = 1;\n}\n";
+        var ctx = new CompilerCtx();
+        CompilerCtx.FileInfo file = ctx.addInMemoryFile("edited", source);
+        List<Token> tokens = ctx.createTokenizer(file).tokenizeAll();
+        IncrementalLexer.Result result = new IncrementalLexer(ctx).relex(file, tokens, new TextEdit(source.indexOf("le "), 0, "t"));
+        assertEquals(fullTokenize(ctx, result.file()), result.tokens());
+        // Only the edited token is lexed again, before falling back in step with the old tokens.
+        assertEquals(2, result.relexedCount());
+    }
+
+    @Test
+    public void commentingOutALine() {
+        String source = "let a: i32 = 1;\nlet b: i32 = 2;\nlet c: i32 = 3;\n";
+        var ctx = new CompilerCtx();
+        CompilerCtx.FileInfo file = ctx.addInMemoryFile("edited", source);
+        List<Token> tokens = ctx.createTokenizer(file).tokenizeAll();
+        IncrementalLexer.Result result = new IncrementalLexer(ctx).relex(file, tokens, new TextEdit(source.indexOf("let b"), 0, "//"));
+        assertEquals(fullTokenize(ctx, result.file()), result.tokens());
+    }
+
+    @Test
+    public void recoveringFromAnEditThatDoesntLex() {
+        String source = "let a: bool = true && false;\n";
+        var ctx = new CompilerCtx();
+        CompilerCtx.FileInfo file = ctx.addInMemoryFile("edited", source);
+        List<Token> tokens = ctx.createTokenizer(file).tokenizeAll();
+        var lexer = new IncrementalLexer(ctx);
+        assertThrows(CompilerCtx.ParseError.class, () -> lexer.relex(file, tokens, new TextEdit(source.indexOf("&&"), 1, "")));
+        // The error points into the text that failed, but the file is back to the text before it.
+        assertTrue(ctx.getCompileErrors().render().startsWith("[L1:20] '&'"));
+        assertTrue(ctx.getFile(file.uid()).text() == file.text());
+
+        IncrementalLexer.Result result = lexer.relex(file, tokens, new TextEdit(source.indexOf("&&"), 2, "||"));
+        assertEquals(fullTokenize(ctx, result.file()), result.tokens());
+    }
+
+    @Test
+    public void randomEditsMatchFullTokenize() {
+        var random = new Random(1234);
+        for (String sample : List.of("factorial.txt", "fibonacci.txt", "typechecking.txt")) {
+            var ctx = new CompilerCtx();
+            CompilerCtx.FileInfo file = ctx.addInMemoryFile(sample, readResource("/lang_samples/" + sample));
+            List<Token> tokens = ctx.createTokenizer(file).tokenizeAll();
+            var lexer = new IncrementalLexer(ctx);
+            for (int i = 0; i < 300; i++) {
+                int length = file.text().length();
+                int offset = random.nextInt(length + 1);
+                int removed = random.nextInt(Math.min(8, length - offset) + 1);
+                String inserted = INSERTIONS[random.nextInt(INSERTIONS.length)];
+                var edit = new TextEdit(offset, removed, inserted);
+                IncrementalLexer.Result result;
+                try {
+                    result = lexer.relex(file, tokens, edit);
+                } catch (CompilerCtx.ParseError e) {
+                    // Eg deleting one char of '&&', a full re-tokenize must fail too. The file is put back, so carry on.
+                    CompilerCtx.FileInfo broken = ctx.addInMemoryFile("broken", edit.applyTo(file.text()).toString());
+                    assertThrows(CompilerCtx.ParseError.class, () -> fullTokenize(ctx, broken));
+                    assertTrue(ctx.getFile(file.uid()).text() == file.text());
+                    continue;
+                }
+                assertEquals(fullTokenize(ctx, result.file()), result.tokens());
+                assertTrue(result.relexedCount() <= result.tokens().size());
+                file = result.file();
+                tokens = result.tokens();
+            }
+        }
+    }
+
+    private static List<Token> fullTokenize(CompilerCtx ctx, CompilerCtx.FileInfo file) {
+        return ctx.createTokenizer(file).tokenizeAll();
+    }
+}
@@ -0,0 +1,140 @@
+package org.example.token;
+
+import org.example.CompilerCtx;
+import org.example.parse.Expr;
+import org.example.parse.HashConsing;
+import org.example.parse.IncrementalParser;
+import org.example.parse.ParsedFile;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.example.CompilerCtx.readResource;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+public class IncrementalParserTest {
+    private static final String[] INSERTIONS = {
+            "", " ", "\n", "a", "1", "+ 2", "-", "(", ")", "{", "}", ";", "// comment\n", "return 1;",
+            "let b: i32 = 5;\n", "func added() {}\n", "if (true) {};", "}\n}\n",
+    };
+
+    @Test
+    public void editingOneFunctionBody() {
+        String source = Benchmarks.generateSource(100);
+        var ctx = new CompilerCtx();
+        ParsedFile file = ctx.createParser(ctx.addInMemoryFile("edited", source)).parseFile();
+        int offset = source.indexOf("c = c + 1;", source.indexOf("func generated-50("));
+        var parser = new IncrementalParser(ctx);
+        IncrementalParser.Result result = parser.reparse(file, new TextEdit(offset, 0, "c = c * 2;\n"));
+        assertMatchesFullParse(ctx, result.file());
+        assertEquals(1, result.reparsedCount());
+        // The old items have been moved to match the new text, so the old version can't be edited again.
+        assertThrows(IllegalStateException.class, () -> parser.reparse(file, new TextEdit(0, 0, " ")));
+    }
+
+    @Test
+    public void addingAnItemBetweenOthers() {
+        String source = "let a: i32 = 1;\n\nlet c: i32 = 3;\n";
+        var ctx = new CompilerCtx();
+        ParsedFile file = ctx.createParser(ctx.addInMemoryFile("edited", source)).parseFile();
+        IncrementalParser.Result result = new IncrementalParser(ctx).reparse(file, new TextEdit(source.indexOf("\nlet c"), 0, "let b: i32 = 2;"));
+        assertMatchesFullParse(ctx, result.file());
+        assertEquals(3, result.file().items().size());
+        assertEquals(1, result.reparsedCount());
+    }
+
+    @Test
+    public void editingTheImports() {
+        String source = "import a;\nfunc main() {}\nfunc other() {}\n";
+        var ctx = new CompilerCtx();
+        ParsedFile file = ctx.createParser(ctx.addInMemoryFile("edited", source)).parseFile();
+        var parser = new IncrementalParser(ctx);
+        IncrementalParser.Result result = parser.reparse(file, new TextEdit(source.indexOf("func main"), 0, "import b;\n"));
+        assertMatchesFullParse(ctx, result.file());
+        assertEquals(List.of("a", "b"), result.file().imports().stream().map(Expr.Identifier::text).toList());
+
+        // Edits further down keep the imports as they were.
+        String edited = result.file().file().text().toString();
+        result = parser.reparse(result.file(), new TextEdit(edited.indexOf("func other"), 0, "func added() {}\n"));
+        assertMatchesFullParse(ctx, result.file());
+        assertEquals(1, result.reparsedCount());
+    }
+
+    @Test
+    public void insertingMultiByteCharactersIntoAMappedFile() throws IOException {
+        Path path = Files.createTempFile("edited", ".txt");
+        try {
+            Files.writeString(path, "func a() {}\nfunc b() {}\n");
+            var ctx = new CompilerCtx();
+            ParsedFile file = ctx.createParser(ctx.addFile(path)).parseFile();
+            // Replaces "unc b() {}" with a function whose name is longer in UTF-8 bytes than in chars, then another one.
+            IncrementalParser.Result result = new IncrementalParser(ctx).reparse(file, new TextEdit(13, 10, "unc " + "数".repeat(6) + "() {}\nfunc zz(){}"));
+            assertMatchesFullParse(ctx, result.file());
+            assertEquals(3, result.file().items().size());
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void hashConsedTreesCantBeReparsed() {
+        var ctx = new CompilerCtx();
+        ctx.hashConsing = new HashConsing();
+        assertThrows(IllegalStateException.class, () -> new IncrementalParser(ctx));
+    }
+
+    @Test
+    public void randomEditsMatchFullParse() {
+        var random = new Random(4321);
+        for (String sample : List.of("factorial.txt", "fibonacci.txt", "typechecking.txt")) {
+            var ctx = new CompilerCtx();
+            ParsedFile file = ctx.createParser(ctx.addInMemoryFile(sample, readResource("/lang_samples/" + sample))).parseFile();
+            var parser = new IncrementalParser(ctx);
+            for (int i = 0; i < 300; i++) {
+                int length = file.file().text().length();
+                int offset = random.nextInt(length + 1);
+                int removed = random.nextInt(Math.min(8, length - offset) + 1);
+                String inserted = INSERTIONS[random.nextInt(INSERTIONS.length)];
+                IncrementalParser.Result result;
+                var edit = new TextEdit(offset, removed, inserted);
+                try {
+                    result = parser.reparse(file, edit);
+                } catch (CompilerCtx.ParseError e) {
+                    // The edit broke the file, a full parse must fail too. The file is put back, so carry on.
+                    CompilerCtx.FileInfo broken = ctx.addInMemoryFile("broken", edit.applyTo(file.file().text()).toString());
+                    assertThrows(CompilerCtx.ParseError.class, () -> ctx.createParser(broken).parseFile());
+                    assertTrue(ctx.getFile(file.file().uid()).text() == file.file().text());
+                    continue;
+                }
+                assertMatchesFullParse(ctx, result.file());
+                file = result.file();
+            }
+        }
+    }
+
+    private static void assertMatchesFullParse(CompilerCtx ctx, ParsedFile incremental) {
+        ParsedFile full = ctx.createParser(incremental.file()).parseFile();
+        assertEquals(full.imports(), incremental.imports());
+        assertEquals(full.items(), incremental.items());
+        // Source ranges don't take part in equality, compare them separately.
+        assertEquals(ranges(full), ranges(incremental));
+    }
+
+    private static List<String> ranges(ParsedFile file) {
+        var ranges = new ArrayList<String>();
+        for (Expr.Identifier imported : file.imports()) {
+            ranges.add(imported.range().startOffset() + "-" + imported.range().endOffset());
+        }
+        for (Expr.Item item : file.items()) {
+            Expr.traverseAll(item, expr -> ranges.add(expr.range().startOffset() + "-" + expr.range().endOffset()));
+        }
+        return ranges;
+    }
+}
@@ -0,0 +1,103 @@
+package org.example.token;
+
+import org.example.CompilerCtx;
+import org.example.parse.Expr;
+import org.example.parse.IncrementalParser;
+import org.example.parse.ParsedFile;
+import org.example.typecheck.IncrementalTypeChecker;
+import org.example.typecheck.TypeChecker;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+public class IncrementalTypeCheckTest {
+    private static final String SOURCE = """
+            let base: i32 = 1;
+            func callee(a: i32) -> i32 { return a + base; }
+            func caller1() -> i32 { return callee(1); }
+            func caller2() -> i32 { { let base: bool = true; }; return callee(2); }
+            func other() -> i32 { return 3; }
+            """;
+
+    @Test
+    public void onlyChangedBodiesAndTheirDependentsAreChecked() {
+        var ctx = new CompilerCtx();
+        ParsedFile file = ctx.createParser(ctx.addInMemoryFile("edited", SOURCE)).parseFile();
+        var checker = new IncrementalTypeChecker(ctx);
+        assertEquals(4, checkAndCompare(checker, file));
+
+        // A body on its own.
+        file = edit(ctx, file, "a + base", "a * base");
+        assertEquals(1, checkAndCompare(checker, file));
+
+        // A signature, so its callers too.
+        file = edit(ctx, file, "callee(a: i32) -> i32 { return a * base; }", "callee(b: i32) -> i32 { return b * base; }");
+        assertEquals(3, checkAndCompare(checker, file));
+
+        // A global only shadows the one before it for the functions after it.
+        file = insertBefore(ctx, file, "func other", "let base: i32 = 2;\n");
+        assertEquals(0, checkAndCompare(checker, file));
+        file = insertBefore(ctx, file, "func callee", "let base: i32 = 3;\n");
+        assertEquals(1, checkAndCompare(checker, file));
+    }
+
+    @Test
+    public void everythingIsCheckedAgainAfterAFailure() {
+        var ctx = new CompilerCtx();
+        ParsedFile file = ctx.createParser(ctx.addInMemoryFile("edited", SOURCE)).parseFile();
+        var checker = new IncrementalTypeChecker(ctx);
+        checkAndCompare(checker, file);
+
+        ParsedFile broken = edit(ctx, file, "return 3;", "return true;");
+        assertThrows(RuntimeException.class, () -> checker.check(broken));
+        ParsedFile fixed = edit(ctx, broken, "return true;", "return 4;");
+        assertEquals(4, checkAndCompare(checker, fixed));
+    }
+
+    @Test
+    public void nodeIdsAreReusedAcrossEdits() {
+        var ctx = new CompilerCtx();
+        ParsedFile file = ctx.createParser(ctx.addInMemoryFile("edited", SOURCE)).parseFile();
+        var checker = new IncrementalTypeChecker(ctx);
+        checkAndCompare(checker, file);
+        for (int i = 0; i < 2000; i++) {
+            file = i % 2 == 0 ? edit(ctx, file, "a + base", "a * base") : edit(ctx, file, "a * base", "a + base");
+            if (i % 10 == 0) {
+                // A failed reparse gives back what it took too, and leaves the file as it was.
+                ParsedFile before = file;
+                assertThrows(CompilerCtx.ParseError.class, () -> insertBefore(ctx, before, "return 3;", "("));
+            }
+            if (i % 100 == 0) {
+                checkAndCompare(checker, file);
+            } else {
+                checker.check(file);
+            }
+        }
+        int[] nodes = { 0 };
+        file.imports().forEach(imported -> nodes[0]++);
+        file.items().forEach(item -> Expr.traverseAll(item, expr -> nodes[0]++));
+        // Names and parameters aren't traversed, and the parser takes ids a block of 64 at a time.
+        assertTrue(ctx.nodeIdCount(file.file().uid()) < 2 * nodes[0] + 2 * 64);
+    }
+
+    private static ParsedFile edit(CompilerCtx ctx, ParsedFile file, String oldText, String newText) {
+        int offset = file.file().text().toString().indexOf(oldText);
+        return new IncrementalParser(ctx).reparse(file, new TextEdit(offset, oldText.length(), newText)).file();
+    }
+
+    private static ParsedFile insertBefore(CompilerCtx ctx, ParsedFile file, String before, String newText) {
+        int offset = file.file().text().toString().indexOf(before);
+        return new IncrementalParser(ctx).reparse(file, new TextEdit(offset, 0, newText)).file();
+    }
+
+    /** Checks the file, makes sure it resolved the same as a full check would have, and returns how many bodies it checked. */
+    private static int checkAndCompare(IncrementalTypeChecker checker, ParsedFile file) {
+        IncrementalTypeChecker.Result result = checker.check(file);
+        var fullCtx = new CompilerCtx();
+        ParsedFile full = fullCtx.createParser(fullCtx.addInMemoryFile("full", file.file().text().toString())).parseFile();
+        assertEquals(TypeCheckTest.resolutions(full, new TypeChecker(fullCtx).checkFile(full)), TypeCheckTest.resolutions(file, result.scope()));
+        return result.recheckedCount();
+    }
+}
@@ -0,0 +1,155 @@
+package org.example.token;
+
+import org.example.CompilerCtx;
+import org.example.interpret.TreeInterpreter;
+import org.example.module.ModuleCompiler;
+import org.example.module.ModuleGraph;
+import org.example.typecheck.ModuleInterface;
+import org.example.typecheck.Symbol;
+import org.example.typecheck.TypeInfo;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+
+public class ModuleTest {
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void importedFunctionsRunInTheirOwnModule() {
+        var ctx = new CompilerCtx();
+        ModuleCompiler.Program program = new ModuleCompiler(ctx, new ForkJoinPool(4)).compile(modules(ctx,
+                "main", "import io;\nimport math;\nfunc main() { println(square(3) + 1); }",
+                "math", "import io;\nfunc square(x: i32) -> i32 { let y: i32 = x * x; println(y); return y; }",
+                "io", "func println(n: i32) {}"));
+
+        PrintStream stdout = System.out;
+        var out = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(out, true, StandardCharsets.UTF_8));
+        try {
+            new TreeInterpreter(ctx, program.scope("main"), program.scopes().values()).interpretFromEntrypoint();
+        } finally {
+            System.setOut(stdout);
+        }
+        assertEquals(List.of("9", "10"), out.toString(StandardCharsets.UTF_8).lines().toList());
+    }
+
+    @Test
+    public void importsAreNotPassedOn() {
+        var ctx = new CompilerCtx();
+        var e = assertThrows(IllegalArgumentException.class, () -> new ModuleCompiler(ctx).compile(modules(ctx,
+                "main", "import math;\nfunc main() { println(1); }",
+                "math", "import io;\nfunc square(x: i32) -> i32 { return x * x; }",
+                "io", "func println(n: i32) {}")));
+        assertEquals("Unknown symbol: println", e.getMessage());
+    }
+
+    @Test
+    public void ownDeclarationsShadowImports() {
+        var ctx = new CompilerCtx();
+        ModuleCompiler.Program program = new ModuleCompiler(ctx).compile(modules(ctx,
+                "main", "import math;\nfunc square(x: bool) -> bool { return x; }\nfunc main() { let a: bool = square(true); }",
+                "math", "func square(x: i32) -> i32 { return x * x; }"));
+        assertEquals(List.of("square", "main"), List.copyOf(program.scope("main").valuesNamespace().keySet()));
+    }
+
+    @Test
+    public void modulesAreCheckedInWavesAfterTheirImports() {
+        var ctx = new CompilerCtx();
+        ModuleCompiler.Program program = new ModuleCompiler(ctx, new ForkJoinPool(4)).compile(modules(ctx,
+                "d", "import b;\nimport c;\nfunc d() -> i32 { return b() + c(); }",
+                "c", "import a;\nfunc c() -> i32 { return a(); }",
+                "b", "import a;\nfunc b() -> i32 { return a(); }",
+                "a", "func a() -> i32 { return 1; }",
+                "e", "func e() {}"));
+        ModuleGraph graph = program.graph();
+        assertEquals(List.of(List.of("a", "e"), List.of("c", "b"), List.of("d")), graph.waves());
+        assertEquals(List.of("b", "c"), graph.imports("d"));
+        assertEquals(List.of("d", "c", "b", "a", "e"), List.copyOf(program.scopes().keySet()));
+    }
+
+    @Test
+    public void unknownModulesAndCyclesAreCompileErrors() {
+        var unknownCtx = new CompilerCtx();
+        assertThrows(CompilerCtx.ParseError.class, () -> new ModuleCompiler(unknownCtx).compile(modules(unknownCtx,
+                "main", "import nope;\nfunc main() {}")));
+        assertEquals("[L1:8-11] 'nope': No module with that name\n\n", unknownCtx.getCompileErrors().render());
+
+        var cycleCtx = new CompilerCtx();
+        assertThrows(CompilerCtx.ParseError.class, () -> new ModuleCompiler(cycleCtx).compile(modules(cycleCtx,
+                "main", "import a;\nfunc main() {}",
+                "a", "import b;\nfunc a() {}",
+                "b", "import a;\nfunc b() {}")));
+        assertEquals("[L1:8] 'b': Import cycle: a -> b -> a\n\n", cycleCtx.getCompileErrors().render());
+    }
+
+    @Test
+    public void modulesCompileSeparatelyAgainstInterfaces() throws IOException {
+        Path directory = temp.newFolder().toPath();
+        var ctx = new CompilerCtx();
+        ctx.moduleInterfaces = directory;
+        ModuleCompiler.Program program = new ModuleCompiler(ctx).compile(modules(ctx,
+                "math", "let scale: i32 = 2;\nfunc square(x: i32) -> i32 { return x * x; }\nfunc half(x: f32, exact: bool) -> f32 { return x; }"));
+        ModuleInterface math = ModuleInterface.read(ctx.names, directory.resolve("math.iface"));
+        assertEquals(ModuleInterface.of(program.scope("math")), math);
+        assertEquals(List.of("square", "half"), math.functions().stream().map(Symbol.Function::name).toList());
+        assertEquals(List.of(new Symbol.Global("scale", TypeInfo.I32)), math.globals());
+
+        // A new context has never seen math's source, only its interface.
+        var separate = new CompilerCtx();
+        separate.moduleInterfaces = directory;
+        var compiler = new ModuleCompiler(separate);
+        compiler.compileSeparately("main", separate.addInMemoryFile("main", "import math;\nfunc main() -> i32 { return square(scale); }"));
+        ModuleInterface main = ModuleInterface.read(separate.names, directory.resolve("main.iface"));
+        assertEquals(List.of(new Symbol.Function("main", List.of(), TypeInfo.I32)), main.functions());
+
+        var e = assertThrows(RuntimeException.class, () -> compiler.compileSeparately("bad",
+                separate.addInMemoryFile("bad", "import math;\nfunc bad() -> i32 { return square(true); }")));
+        assertEquals("Type mismatch: I32 vs BOOL", e.getMessage());
+    }
+
+    @Test
+    public void separateCompilesNeedTheInterfacesOfTheirImports() throws IOException {
+        var ctx = new CompilerCtx();
+        ctx.moduleInterfaces = temp.newFolder().toPath();
+        assertThrows(CompilerCtx.ParseError.class, () -> new ModuleCompiler(ctx).compileSeparately("main",
+                ctx.addInMemoryFile("main", "import math;\nfunc main() {}")));
+        assertEquals("[L1:8-11] 'math': No interface for that module, it has to be compiled first\n\n", ctx.getCompileErrors().render());
+    }
+
+    @Test
+    public void staleOrCorruptInterfacesAreReportedAtTheImport() throws IOException {
+        Path directory = temp.newFolder().toPath();
+        for (byte[] contents : List.of(new byte[] { 0x4d, 0x4f, 0x44, 0x49, 0, 0, 0, 0 }, new byte[] { 0x4d, 0x4f })) {
+            Files.write(directory.resolve("math.iface"), contents);
+            var ctx = new CompilerCtx();
+            ctx.moduleInterfaces = directory;
+            assertThrows(CompilerCtx.ParseError.class, () -> new ModuleCompiler(ctx).compileSeparately("main",
+                    ctx.addInMemoryFile("main", "import math;\nfunc main() {}")));
+            assertEquals("[L1:8-11] 'math': Interface out of date or corrupt, recompile math\n\n", ctx.getCompileErrors().render());
+        }
+    }
+
+    /** Alternating module names and sources. */
+    private static Map<String, CompilerCtx.FileInfo> modules(CompilerCtx ctx, String... namesAndSources) {
+        var modules = new LinkedHashMap<String, CompilerCtx.FileInfo>();
+        for (int i = 0; i < namesAndSources.length; i += 2) {
+            modules.put(namesAndSources[i], ctx.addInMemoryFile(namesAndSources[i], namesAndSources[i + 1]));
+        }
+        return modules;
+    }
+}
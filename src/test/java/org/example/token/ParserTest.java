@@ -1,14 +1,35 @@
 package org.example.token;
 
+import org.example.CompileErrors;
 import org.example.CompilerCtx;
 import org.example.parse.Expr;
 import org.example.parse.Expr.BinaryOp;
+import org.example.parse.FlatAst;
+import org.example.parse.HashConsing;
+import org.example.parse.ParallelParser;
 import org.example.parse.ParsedFile;
 import org.example.parse.Parser;
 import org.example.parse.PrintAst;
+import org.example.parse.SourceRange;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
 
 public class ParserTest {
     @Test
@@ -43,6 +64,191 @@ public class ParserTest {
         ));
     }
 
+    @Test
+    public void bufferedParserMatchesStreamingParser() {
+        String source = CompilerCtx.readResource("/lang_samples/typechecking.txt");
+        var ctx = new CompilerCtx();
+        ParsedFile streamed = ctx.createParser(ctx.addInMemoryFile("streamed", source)).parseFile();
+        ParsedFile buffered = ctx.createBufferedParser(ctx.addInMemoryFile("buffered", source)).parseFile();
+        assertEquals(streamed.items(), buffered.items());
+    }
+
+    @Test
+    public void parallelParserMatchesSequential() {
+        String source = CompilerCtx.readResource("/lang_samples/typechecking.txt").repeat(20) + """
+        func unindented() {
+        let a: i32 = 1;
+        func nested() {};
+        }
+        let f: i32 = func g() {};
+        """;
+        var ctx = new CompilerCtx();
+        ParsedFile sequential = ctx.createParser(ctx.addInMemoryFile("sequential", source)).parseFile();
+        ParsedFile parallel = new ParallelParser(ctx, new ForkJoinPool(4)).parseFile(ctx.addInMemoryFile("parallel", source), 32);
+        assertEquals(sequential.items(), parallel.items());
+        ctx.checkSourceRangeInfoIsPresent(parallel);
+    }
+
+    @Test
+    public void parallelParserReportsErrors() {
+        String source = CompilerCtx.readResource("/lang_samples/typechecking.txt").repeat(20) + "func broken( {}\n";
+        var ctx = new CompilerCtx();
+        var parser = new ParallelParser(ctx, new ForkJoinPool(4));
+        assertThrows(CompilerCtx.ParseError.class, () -> parser.parseFile(ctx.addInMemoryFile("parallel", source), 32));
+        assertEquals(1, ctx.getCompileErrors().errors().size());
+    }
+
+    @Test
+    public void nodesCarrySourceRanges() {
+        var ctx = new CompilerCtx();
+        ParsedFile file = ctx.createParser(ctx.addInMemoryFile("ranges", "func f() {\n    g(1 + -x, true);\n}")).parseFile();
+        ctx.checkSourceRangeInfoIsPresent(file);
+        var function = (Expr.Function) file.items().get(0);
+        var call = (Expr.Call) function.body().items().get(0);
+        assertEquals("g(1 + -x, true)", ctx.getSourceSpan(call).text());
+        assertEquals("1 + -x", ctx.getSourceSpan(call.arguments().get(0)).text());
+        assertEquals("L2:5-19", ctx.getSourceSpan(call).formattedLocation());
+    }
+
+    @Test
+    public void nodesCompareWithoutTheirRanges() {
+        var ctx = new CompilerCtx();
+        ParsedFile file = ctx.createParser(ctx.addInMemoryFile("ranges", "func f() {\n    g(1);\n    g(1);\n}")).parseFile();
+        List<Expr> body = ((Expr.Function) file.items().get(0)).body().items();
+        assertEquals(body.get(0), body.get(1));
+        assertEquals(body.get(0).hashCode(), body.get(1).hashCode());
+        assertEquals(new Expr.Call(new Expr.Identifier("g"), List.of(new Expr.Number("1"))), body.get(0));
+
+        // Ranges themselves are values, every node's is different.
+        assertNotEquals(body.get(0).range(), body.get(1).range());
+        var ranges = new HashSet<SourceRange>();
+        int[] count = { 0 };
+        Expr.traverseAll(file.items().get(0), expr -> {
+            ranges.add(expr.range());
+            count[0]++;
+        });
+        assertEquals(count[0], ranges.size());
+        assertTrue(ranges.contains(body.get(1).range()));
+    }
+
+    @Test
+    public void nodeIdsAreUniqueWithinAFile() {
+        String source = CompilerCtx.readResource("/lang_samples/typechecking.txt").repeat(20);
+        var ctx = new CompilerCtx();
+        var sequential = ctx.createParser(ctx.addInMemoryFile("sequential", source)).parseFile();
+        var parallel = new ParallelParser(ctx, new ForkJoinPool(4)).parseFile(ctx.addInMemoryFile("parallel", source), 32);
+        for (ParsedFile file : List.of(sequential, parallel)) {
+            var seen = new BitSet();
+            int[] count = { 0 };
+            int nodeIdCount = ctx.nodeIdCount(file.file().uid());
+            for (Expr.Item item : file.items()) {
+                Expr.traverseAll(item, expr -> {
+                    int id = expr.range().nodeId();
+                    assertTrue(id >= 0 && id < nodeIdCount);
+                    assertFalse("node id " + id + " is used twice", seen.get(id));
+                    seen.set(id);
+                    count[0]++;
+                });
+            }
+            // Names and parameters aren't traversed, but there should be no more than a few ids to spare.
+            assertTrue(nodeIdCount < 2 * count[0]);
+        }
+    }
+
+    @Test
+    public void errorsAreRenderedOnDemand() {
+        var ctx = new CompilerCtx();
+        Parser parser = ctx.createParser(ctx.addInMemoryFile("errors", "func main() {\n    let a: int = ;\n}"));
+        assertThrows(CompilerCtx.ParseError.class, parser::parseFile);
+        assertTrue(ctx.didError());
+        CompileErrors.Message message = ctx.getCompileErrors().errors().get(0).message();
+        assertEquals(CompileErrors.Message.WRONG_TOKEN_ONE_OF, message);
+        assertTrue(ctx.getCompileErrors().render().startsWith("[L2:18] ';':  Got SEMICOLON, expected one of ["));
+    }
+
+    @Test
+    public void identifiersAreInterned() {
+        var ctx = new CompilerCtx();
+        String source = "func f(a: i32) -> i32 {\n    return a + été;\n}";
+        ParsedFile utf16 = ctx.createParser(ctx.addInMemoryFile("utf16", source)).parseFile();
+        ParsedFile utf8 = ctx.createParser(ctx.addStreamedFile("utf8", Channels.newChannel(new ByteArrayInputStream(source.getBytes(StandardCharsets.UTF_8))))).parseFile();
+        assertEquals(utf16.items(), utf8.items());
+
+        var names = new ArrayList<Expr.Identifier>();
+        for (ParsedFile file : new ParsedFile[] { utf16, utf8 }) {
+            Expr.traverseAll(file.items().get(0), expr -> {
+                if (expr instanceof Expr.Identifier identifier) {
+                    names.add(identifier);
+                }
+            });
+        }
+        for (Expr.Identifier name : names) {
+            Expr.Identifier first = names.stream().filter(n -> n.text().equals(name.text())).findFirst().orElseThrow();
+            assertEquals(first.id(), name.id());
+            assertTrue(first.text() == name.text());
+            assertEquals(name.text(), ctx.names.name(name.id()));
+        }
+        assertEquals(ctx.names.intern("a"), ctx.names.intern(SourceText.of("(a)"), 1, 2));
+    }
+
+    @Test
+    public void hashConsingSharesPureSubtrees() {
+        var ctx = new CompilerCtx();
+        ctx.hashConsing = new HashConsing();
+        String source = "func f() -> i32 {\n    let a: i32 = 1 + 2;\n    let b: i32 = 1 + 2;\n    a = a + 1;\n    return -3 * b;\n}";
+        CompilerCtx.FileInfo info = ctx.addInMemoryFile("consed", source);
+        ParsedFile consed = ctx.parseFile(info);
+        assertEquals(ctx.createParser(info).parseFile().items(), consed.items());
+
+        List<Expr> body = ((Expr.Function) consed.items().get(0)).body().items();
+        Expr aValue = ((Expr.Let) body.get(0)).value();
+        assertTrue(aValue == ((Expr.Let) body.get(1)).value());
+        assertTrue(((Expr.Binary) aValue).left() == ((Expr.Binary) ((Expr.Assign) body.get(2)).rhs()).right());
+        // Names aren't shared, they could mean something different elsewhere.
+        assertTrue(((Expr.Let) body.get(0)).name() != ((Expr.Assign) body.get(2)).lhs());
+        assertEquals(4, ctx.hashConsing.sharedCount());
+
+        List<String> texts = ctx.hashConsing.occurrences(aValue).stream()
+                .map(range -> ctx.getSourceSpan(range.fileUid(), range.startOffset(), range.endOffset()).formattedLocation())
+                .toList();
+        assertEquals(List.of("L2:18-22", "L3:18-22"), texts);
+
+        // Nothing is kept once the file is checked, a reparse only shares within itself.
+        ctx.checkFile(consed);
+        assertEquals(List.of(aValue.range()), ctx.hashConsing.occurrences(aValue));
+        ParsedFile reparsed = ctx.parseFile(info);
+        assertTrue(aValue != ((Expr.Let) ((Expr.Function) reparsed.items().get(0)).body().items().get(0)).value());
+        assertEquals(8, ctx.hashConsing.sharedCount());
+    }
+
+    @Test
+    public void flatAstPrintsLikeTree() {
+        for (String sample : new String[] { "typechecking", "fibonacci", "factorial", "hello_world" }) {
+            var ctx = new CompilerCtx();
+            String source = CompilerCtx.readResource("/lang_samples/" + sample + ".txt");
+            ParsedFile file = ctx.createParser(ctx.addInMemoryFile(sample, source)).parseFile();
+            FlatAst flat = FlatAst.from(file);
+            assertEquals(printToString(printer -> printer.visit(file)), printToString(printer -> printer.visit(flat)));
+
+            int[] nodes = { 0 };
+            file.items().forEach(item -> Expr.traverseAll(item, expr -> nodes[0]++));
+            assertTrue(flat.size() >= nodes[0]);
+        }
+
+        var ctx = new CompilerCtx();
+        ParsedFile file = ctx.createParser(ctx.addInMemoryFile("imports", "import io;\nimport math;\nfunc main() {}")).parseFile();
+        FlatAst flat = FlatAst.from(file);
+        assertEquals(2, flat.imports().length);
+        assertEquals("math", flat.text(flat.imports()[1]));
+        assertEquals(printToString(printer -> printer.visit(file)), printToString(printer -> printer.visit(flat)));
+    }
+
+    private static String printToString(Consumer<PrintAst> print) {
+        var bytes = new ByteArrayOutputStream();
+        print.accept(new PrintAst(new PrintStream(bytes, true, StandardCharsets.UTF_8)));
+        return bytes.toString(StandardCharsets.UTF_8);
+    }
+
     private static void checkExprMatches(String source, Expr expected) {
         Expr expr = CompilerCtx.parseExpr(source);
         assertEquals(expected, expr);
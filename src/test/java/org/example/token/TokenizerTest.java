@@ -3,10 +3,20 @@ package org.example.token;
 import org.example.CompilerCtx;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
 
 public class TokenizerTest {
 
@@ -47,6 +57,16 @@ public class TokenizerTest {
         assertTokens("abc //\n +2", TokenType.IDENTIFIER, TokenType.PLUS, TokenType.NUMBER);
     }
 
+    @Test
+    public void testKeywords() {
+        assertTokens("func while if else let true false return",
+                TokenType.K_FUNC, TokenType.K_WHILE, TokenType.K_IF, TokenType.K_ELSE,
+                TokenType.K_LET, TokenType.K_TRUE, TokenType.K_FALSE, TokenType.K_RETURN);
+        assertTokens("fund iffy els returned true-ish func? lett f",
+                TokenType.IDENTIFIER, TokenType.IDENTIFIER, TokenType.IDENTIFIER, TokenType.IDENTIFIER,
+                TokenType.IDENTIFIER, TokenType.IDENTIFIER, TokenType.IDENTIFIER, TokenType.IDENTIFIER);
+    }
+
     @Test
     public void test3() {
         tokenize("");
@@ -54,6 +74,115 @@ public class TokenizerTest {
         tokenize("  ");
     }
 
+    @Test
+    public void testSourceLocations() {
+        var ctx = new CompilerCtx();
+        String source = "func a() {}\n\nlet b: i32 = 1;\n  c\n";
+        var file = ctx.addInMemoryFile("locations", source);
+        int line = 1;
+        int column = 1;
+        for (int offset = 0; offset < source.length(); offset++) {
+            assertEquals(new SourceLoc(offset, line, column), file.lineIndex().getSourceLocation(offset));
+            if (source.charAt(offset) == '\n') {
+                line++;
+                column = 1;
+            } else {
+                column++;
+            }
+        }
+        assertEquals("L4:3", ctx.getSourceSpan(file.uid(), 31, 32).formattedLocation());
+    }
+
+    @Test
+    public void testMappedFileMatchesInMemory() throws IOException {
+        String source = "// ünïcode comment\nlet größe: i32 = 1;\nfunc 数() { größe == 2; }\n";
+        Path path = Files.createTempFile("tokenizer-test", ".txt");
+        try {
+            Files.writeString(path, source);
+            var ctx = new CompilerCtx();
+            Tokenizer mapped = ctx.createTokenizer(ctx.addFile(path));
+            Tokenizer inMemory = ctx.createTokenizer(ctx.addInMemoryFile("in-memory", source));
+            List<Token> mappedTokens = mapped.tokenizeAll();
+            List<Token> inMemoryTokens = inMemory.tokenizeAll();
+            assertEquals(inMemoryTokens.size(), mappedTokens.size());
+            for (int i = 0; i < mappedTokens.size(); i++) {
+                assertEquals(inMemoryTokens.get(i).type(), mappedTokens.get(i).type());
+                assertEquals(inMemory.getSourceOf(inMemoryTokens.get(i)), mapped.getSourceOf(mappedTokens.get(i)));
+            }
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void testVectorizedMatchesScalar() throws IOException {
+        var sb = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            sb.append(" ".repeat(i % 40)).append("// comment ").append("-".repeat(i % 70)).append('\n');
+            sb.append("\t\t\u000B\f  let x").append(i).append(": i32 = ").append(i).append(";\r\n");
+        }
+        sb.append("// trailing comment without a newline");
+        Path path = Files.createTempFile("tokenizer-test", ".txt");
+        try {
+            Files.writeString(path, sb.toString());
+            var ctx = new CompilerCtx();
+            CompilerCtx.FileInfo file = ctx.addFile(path);
+            List<Token> scalar = ctx.createTokenizer(file).tokenizeAll();
+            ctx.vectorizedLexing = true;
+            List<Token> vectorized = ctx.createTokenizer(file).tokenizeAll();
+            assertEquals(scalar, vectorized);
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void testStreamedMatchesInMemory() {
+        String source = CompilerCtx.readResource("/lang_samples/factorial.txt")
+                + "// a comment that is a lot longer than the tiny stream buffer used by this test\n";
+        var ctx = new CompilerCtx();
+        List<Token> expected = ctx.createTokenizer(ctx.addInMemoryFile("in-memory", source)).tokenizeAll();
+        CompilerCtx.FileInfo streamedFile = ctx.addStreamedFile("streamed", streamOf(source), 32);
+        Tokenizer streamed = ctx.createTokenizer(streamedFile);
+        for (Token token : expected) {
+            Token actual = streamed.next();
+            assertEquals(token.type(), actual.type());
+            assertEquals(token.startOffset(), actual.startOffset());
+            assertEquals(token.endOffset(), actual.endOffset());
+            assertEquals(ctx.getSourceSpan(token), ctx.getSourceSpan(actual));
+        }
+        assertEquals(TokenType.EOF, streamed.peek());
+        // Can be described, but not read back.
+        assertTrue(streamedFile.toString().contains("Streamed["));
+        assertThrows(IllegalStateException.class, streamedFile::contents);
+    }
+
+    @Test
+    public void testStreamedTokenMustFitInBuffer() {
+        var ctx = new CompilerCtx();
+        CompilerCtx.FileInfo file = ctx.addStreamedFile("streamed", streamOf("a-very-long-identifier-indeed"), 16);
+        assertThrows(IllegalStateException.class, () -> ctx.createTokenizer(file).next());
+    }
+
+    @Test
+    public void testParallelMatchesSequential() {
+        String source = CompilerCtx.readResource("/lang_samples/typechecking.txt").repeat(20)
+                + "\nfuncs-are-not-items\nlet\n";
+        var ctx = new CompilerCtx();
+        CompilerCtx.FileInfo file = ctx.addInMemoryFile("parallel", source);
+        assertTrue(ParallelLexer.findItemBoundaries(file.text(), 16).length > 1);
+        TokenBuffer sequential = ctx.createTokenizer(file).tokenizeToBuffer();
+        TokenBuffer parallel = new ParallelLexer(ctx, new ForkJoinPool(4)).tokenize(file, 64);
+        assertEquals(sequential.size(), parallel.size());
+        for (int i = 0; i < sequential.size(); i++) {
+            assertEquals(sequential.get(i), parallel.get(i));
+        }
+    }
+
+    private static ReadableByteChannel streamOf(String source) {
+        return Channels.newChannel(new ByteArrayInputStream(source.getBytes(StandardCharsets.UTF_8)));
+    }
+
     private void tokenize(String source) {
         CompilerCtx.printTokens(source);
     }
@@ -1,9 +1,22 @@
 package org.example.token;
 
+import org.example.CompileErrors;
 import org.example.CompilerCtx;
+import org.example.interpret.TreeInterpreter;
+import org.example.parse.Expr;
+import org.example.parse.HashConsing;
+import org.example.parse.ParsedFile;
+import org.example.typecheck.ParallelTypeChecker;
+import org.example.typecheck.SymbolTable;
+import org.example.typecheck.TypeChecker;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
 import static org.example.CompilerCtx.readResource;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThrows;
 
 public class TypeCheckTest {
@@ -24,6 +37,110 @@ public class TypeCheckTest {
         checkTypes("func foo() -> void { return return; }");
     }
 
+    @Test
+    public void literalsArePooled() {
+        var ctx = new CompilerCtx();
+        ParsedFile file = ctx.createParser(ctx.addInMemoryFile("literals", "let a: i32 = 2147483647;\nlet b: i32 = 7;\nlet c: i32 = 7;")).parseFile();
+        new TypeChecker(ctx).checkFile(file);
+        assertEquals(2, ctx.constants.size());
+        assertEquals(Integer.MAX_VALUE, ctx.constants.i32(0));
+        assertEquals(7, ctx.constants.value(1));
+    }
+
+    @Test
+    public void outOfRangeLiteralIsACompileError() {
+        var ctx = new CompilerCtx();
+        ParsedFile file = ctx.createParser(ctx.addInMemoryFile("literals", "func f() {\n    let a: i32 = 2147483648;\n}")).parseFile();
+        assertThrows(CompilerCtx.ParseError.class, () -> new TypeChecker(ctx).checkFile(file));
+        assertEquals(CompileErrors.Message.NUMBER_OUT_OF_RANGE, ctx.getCompileErrors().errors().get(0).message());
+        assertEquals("[L2:18-27] '2147483648': Number is out of range for I32\n\n", ctx.getCompileErrors().render());
+    }
+
+    @Test
+    public void sharedOutOfRangeLiteralIsReportedEverywhere() {
+        var ctx = new CompilerCtx();
+        ctx.hashConsing = new HashConsing();
+        ParsedFile file = ctx.parseFile(ctx.addInMemoryFile("literals", "let a: i32 = 9999999999;\nlet b: i32 = 9999999999;"));
+        assertThrows(CompilerCtx.ParseError.class, () -> new TypeChecker(ctx).checkFile(file));
+        assertEquals(2, ctx.getCompileErrors().errors().size());
+    }
+
+    @Test
+    public void sharedSubtreesInterpretTheSame() {
+        for (String sample : new String[] { "fibonacci.txt", "factorial.txt" }) {
+            var ctx = new CompilerCtx();
+            ctx.hashConsing = new HashConsing();
+            ParsedFile file = ctx.parseFile(ctx.addInMemoryFile(sample, readResource("/lang_samples/" + sample)));
+            new TreeInterpreter(ctx, new TypeChecker(ctx).checkFile(file)).interpretFromEntrypoint();
+        }
+    }
+
+    @Test
+    public void shadowedNamesComeBackAfterTheirBlock() {
+        checkTypes("""
+                let a: bool = true;
+                func f() -> bool {
+                    { let a: i32 = 1; { let a: i32 = a; }; let b: i32 = a; };
+                    return a;
+                }""");
+        assertThrows(RuntimeException.class, () -> {
+            checkTypes("func f() -> i32 { { let b: i32 = 1; }; return b; }");
+        });
+    }
+
+    @Test
+    public void parallelTypeCheckerMatchesSequential() {
+        var source = new StringBuilder(readResource("/lang_samples/typechecking.txt"));
+        for (int i = 0; i < 40; i++) {
+            source.append("let g").append(i).append(": i32 = ").append(i).append(";\n");
+            source.append("func f").append(i).append("(x: i32) -> i32 { let y: i32 = x + g").append(i)
+                    .append("; { let y: bool = true; }; return f").append((i + 1) % 40).append("(y); }\n");
+        }
+        // Shadows g0, but only for the functions after it.
+        source.append("let g0: bool = true;\nfunc last() -> bool { return g0; }\n");
+
+        var sequentialCtx = new CompilerCtx();
+        ParsedFile sequentialFile = sequentialCtx.parseFile(sequentialCtx.addInMemoryFile("sequential", source.toString()));
+        SymbolTable.FileScope sequential = new TypeChecker(sequentialCtx).checkFile(sequentialFile);
+        var parallelCtx = new CompilerCtx();
+        ParsedFile parallelFile = parallelCtx.parseFile(parallelCtx.addInMemoryFile("parallel", source.toString()));
+        SymbolTable.FileScope parallel = new ParallelTypeChecker(parallelCtx, new ForkJoinPool(4)).checkFile(parallelFile, 4);
+
+        assertEquals(sequential.valuesNamespace(), parallel.valuesNamespace());
+        assertEquals(resolutions(sequentialFile, sequential), resolutions(parallelFile, parallel));
+        assertEquals(sequential.symbols().functionDefinitions().size(), parallel.symbols().functionDefinitions().size());
+    }
+
+    @Test
+    public void parallelTypeCheckerOnlySeesEarlierGlobals() {
+        var source = new StringBuilder();
+        for (int i = 0; i < 8; i++) {
+            source.append("func f").append(i).append("() -> i32 { return 1; }\n");
+        }
+        source.append("func early() -> i32 { return late; }\nlet late: i32 = 1;\n");
+        var ctx = new CompilerCtx();
+        ParsedFile file = ctx.parseFile(ctx.addInMemoryFile("parallel", source.toString()));
+        var e = assertThrows(IllegalArgumentException.class, () -> new ParallelTypeChecker(ctx, new ForkJoinPool(4)).checkFile(file, 2));
+        assertEquals("Unknown symbol: late", e.getMessage());
+        // The global scope is popped even so, ready for the next file.
+        new ParallelTypeChecker(ctx, new ForkJoinPool(4)).checkFile(ctx.parseFile(ctx.addInMemoryFile("next", "func main() {}")), 2);
+    }
+
+    /** What every node in the file resolved to, in tree order. */
+    static List<String> resolutions(ParsedFile file, SymbolTable.FileScope scope) {
+        var resolutions = new ArrayList<String>();
+        for (Expr.Item item : file.items()) {
+            Expr.traverseAll(item, expr -> {
+                resolutions.add(expr.getClass().getSimpleName() + ": " + scope.symbols().tryLookupExprType(expr));
+                if (expr instanceof Expr.Identifier identifier) {
+                    // Name ids depend on the order a context came across the names, leave them out.
+                    resolutions.add(String.valueOf(scope.symbols().tryLookupValue(identifier)).replaceAll(", id=\\d+", ""));
+                }
+            });
+        }
+        return resolutions;
+    }
+
     public static void checkTypes(String source) {
         CompilerCtx.checkTypes(source);
     }